@@ -1,21 +1,25 @@
 package org.iota.ec;
 
 import org.iota.ec.model.AutonomousEconomicActor;
+import org.iota.ec.model.ConfidenceCache;
+import org.iota.ec.model.EconomicCluster;
+import org.iota.ec.model.MarkerPipeline;
+import org.iota.ec.model.RetentionPolicy;
 import org.iota.ec.model.TrustedEconomicActor;
-import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
+import org.iota.ec.model.ValidationCache;
+import org.iota.ec.util.IndexableMerkleTree;
 import org.iota.ict.model.bundle.Bundle;
 import org.iota.ict.model.transaction.Transaction;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.math.BigInteger;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 class API {
 
+    private static final int DEFAULT_PAGE_SIZE = 100, MAX_PAGE_SIZE = 1000;
+
     private final ECModule module;
 
     API(ECModule module) {
@@ -42,8 +46,9 @@ class API {
             case "get_cluster":
                 return success.put("cluster", getClusterJSON());
             case "get_cluster_confidences":
-                JSONArray hashes = requestJSON.getJSONArray("hashes");
-                return success.put("cluster_confidences", getClusterConfidences(hashes));
+                EconomicCluster.Approvals approvals = module.getConfidences(toStringList(requestJSON.getJSONArray("hashes")));
+                return success.put("cluster_confidences", getClusterConfidences(approvals))
+                        .put("cluster_confidence_errors", getClusterConfidenceErrors(approvals));
             case "get_actors":
                 return success.put("actors", getActorsJSON());
             case "get_balances":
@@ -63,33 +68,69 @@ class API {
             case "get_tangle":
                 String transaction = requestJSON.getString("transaction");
                 return success.put("tangle", getTangle(transaction));
+            case "get_transactions_by_confidence": {
+                double min = requestJSON.optDouble("min", 0);
+                double max = requestJSON.optDouble("max", 1);
+                int offset = requestJSON.optInt("offset", 0);
+                int limit = Math.min(requestJSON.optInt("limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+                List<ConfidenceIndex.Entry> entries = module.getConfidenceIndex().findByConfidence(min, max, offset, limit);
+                return success.put("transactions", toJSON(entries));
+            }
+            case "get_changed_transactions": {
+                long since = requestJSON.optLong("since", 0);
+                int limit = Math.min(requestJSON.optInt("limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+                List<ConfidenceIndex.Entry> entries = module.getConfidenceIndex().findChangedSince(since, limit);
+                long cursor = entries.isEmpty() ? since : entries.get(entries.size()-1).change;
+                return success.put("transactions", toJSON(entries)).put("cursor", cursor);
+            }
+            case "get_metrics":
+                return success.put("metrics", getMetricsJSON());
             /* ***** DO ***** */
             case "create_actor":
-                String actorAddress = module.createNewActor(SerializableAutoIndexableMerkleTree.fromJSON(requestJSON));
-                Persistence.store(module);
+                String actorAddress = module.createNewActor(IndexableMerkleTree.fromJSON(requestJSON));
                 return success.put("address", actorAddress);
             case "set_trust":
                 String address = requestJSON.getString("address");
                 double trust = requestJSON.getDouble("trust");
                 module.setTrust(address, trust);
-                Persistence.store(module);
+                return success;
+            case "import_trust":
+                performActionImportTrust(requestJSON);
+                return success;
+            case "set_retention_policy":
+                module.setRetentionPolicy(requestJSON.getString("address"), RetentionPolicy.fromJSON(requestJSON));
+                return success;
+            case "set_sampling":
+                module.getCluster().setSampling(requestJSON.getInt("actor_threshold"), requestJSON.getInt("samples"));
+                return success;
+            case "set_finality_window":
+                module.setFinalityStabilityWindow(requestJSON.getLong("stability_window"));
+                return success;
+            case "set_tracking_ttl":
+                module.setTrackingTimeToLive(requestJSON.getLong("time_to_live"));
+                return success;
+            case "set_marker_budget":
+                module.setMarkerBudget(requestJSON.getString("address"), requestJSON.getDouble("markers_per_second"),
+                        requestJSON.getInt("burst"), requestJSON.optInt("leaf_reserve", 0));
+                return success;
+            case "set_max_candidates":
+                module.setMaxCandidates(requestJSON.getString("address"), requestJSON.getInt("max_candidates"));
+                return success;
+            case "set_tick_interval":
+                module.setTickInterval(requestJSON.getLong("interval"));
                 return success;
             case "delete_actor":
                 performActionDeleteActor(requestJSON);
-                Persistence.store(module);
                 return success;
             case "unwatch_transfer":
                 String transfer = requestJSON.getString("transfer");
                 module.unwatchTransfer(transfer);
-                Persistence.store(module);
                 return success;
             case "submit_transfer":
                 String hash = performActionSubmitTransfer(requestJSON);
-                Persistence.store(module);
                 return success.put("hash", hash);
             case "issue_marker":
                 performActionIssueMarker(requestJSON);
-                Persistence.store(module);
                 return success;
             case "change_balance": {
                 performActionChangeBalance(requestJSON);
@@ -162,6 +203,20 @@ class API {
         return confidences;
     }
 
+    private void performActionImportTrust(JSONObject requestJSON) {
+        JSONArray actors = requestJSON.getJSONArray("actors");
+        Map<String, Double> trustByAddress = new LinkedHashMap<>();
+        Map<String, RetentionPolicy> retentionPolicyByAddress = new HashMap<>();
+        for(int i = 0; i < actors.length(); i++) {
+            JSONObject actor = actors.getJSONObject(i);
+            String address = actor.getString("address");
+            trustByAddress.put(address, actor.getDouble("trust"));
+            if(actor.has("retention_policy"))
+                retentionPolicyByAddress.put(address, RetentionPolicy.fromJSON(actor.getJSONObject("retention_policy")));
+        }
+        module.importTrust(trustByAddress, retentionPolicyByAddress);
+    }
+
     private void performActionChangeBalance(JSONObject requestJSON) {
         String address = requestJSON.getString("address");
         BigInteger toAdd = new BigInteger(requestJSON.getString("to_add"));
@@ -175,15 +230,20 @@ class API {
         module.considerTangle(actor, trunk, branch);
     }
 
-    private JSONObject getClusterConfidences(JSONArray hashes) {
+    private static JSONObject getClusterConfidences(EconomicCluster.Approvals approvals) {
         JSONObject confidences = new JSONObject();
-        for(int i = 0; i < hashes.length(); i++) {
-            String hash = hashes.getString(i);
-            confidences.put(hash, module.getConfidence(hash));
-        }
+        for(int i = 0; i < approvals.size(); i++)
+            confidences.put(approvals.getHash(i), approvals.getConfidence(i));
         return confidences;
     }
 
+    private static JSONObject getClusterConfidenceErrors(EconomicCluster.Approvals approvals) {
+        JSONObject errors = new JSONObject();
+        for(int i = 0; i < approvals.size(); i++)
+            errors.put(approvals.getHash(i), approvals.getConfidenceError(i));
+        return errors;
+    }
+
     private String performActionSubmitTransfer(JSONObject requestJSON) {
         String seed = requestJSON.getString("seed");
         int index = requestJSON.getInt("index");
@@ -217,6 +277,8 @@ class API {
             jsonEntry.put("address", actor.getAddress());
             jsonEntry.put("trust_abs", actor.getTrust());
             jsonEntry.put("trust_rel", actor.getTrust()/trustSum);
+            jsonEntry.put("sub_tangles", actor.getAmountOfSubTangles());
+            jsonEntry.put("retention_policy", actor.getRetentionPolicy().toJSON());
             clusterJSON.put(jsonEntry);
         }
         return clusterJSON;
@@ -224,24 +286,129 @@ class API {
 
     private JSONArray getBalancesJSON(String seed) {
         List<String> addresses = ECModule.deriveAddressesFromSeed(seed, 10);
+        Map<String, BigInteger> balances = module.getBalancesOfAddresses(addresses);
         JSONArray balancesJSON = new JSONArray();
         for(String address : addresses) {
-            // TODO custom api function
             JSONObject jsonEntry = new JSONObject();
             jsonEntry.put("address", address);
-            jsonEntry.put("balance", module.getBalanceOfAddress(address));
+            jsonEntry.put("balance", balances.get(address));
             balancesJSON.put(jsonEntry);
         }
         return balancesJSON;
     }
 
+    private static JSONArray toJSON(List<ConfidenceIndex.Entry> entries) {
+        JSONArray entriesJSON = new JSONArray();
+        for(ConfidenceIndex.Entry entry : entries) {
+            JSONObject entryJSON = new JSONObject();
+            entryJSON.put("hash", entry.hash);
+            entryJSON.put("address", entry.address);
+            entryJSON.put("value", entry.value.toString());
+            entryJSON.put("confidence", entry.confidence);
+            entryJSON.put("change", entry.change);
+            entriesJSON.put(entryJSON);
+        }
+        return entriesJSON;
+    }
+
+    private JSONObject getMetricsJSON() {
+        MarkerPipeline pipeline = module.getCluster().getMarkerPipeline();
+        JSONObject pipelineJSON = new JSONObject();
+        pipelineJSON.put("verification_queue_depth", pipeline.getVerificationQueueDepth());
+        pipelineJSON.put("writer_queue_depth", pipeline.getWriterQueueDepth());
+        pipelineJSON.put("capacity", pipeline.getCapacity());
+        pipelineJSON.put("backpressure", pipeline.getBackpressure().name());
+        pipelineJSON.put("verified", pipeline.getVerified());
+        pipelineJSON.put("rejected", pipeline.getRejected());
+        pipelineJSON.put("dropped", pipeline.getDropped());
+        pipelineJSON.put("dropped_transactions", pipeline.getDroppedTransactions());
+        pipelineJSON.put("transaction_batches", pipeline.getTransactionBatches());
+        pipelineJSON.put("applied", pipeline.getApplied());
+        pipelineJSON.put("syncing_actors", module.getCluster().amountOfSyncingActors());
+        pipelineJSON.put("restored_snapshots", module.getCluster().getRestoredSnapshots());
+        pipelineJSON.put("skipped_markers", module.getCluster().getSkippedMarkers());
+
+        ConfidenceCache cache = module.getCluster().getConfidenceCache();
+        JSONObject cacheJSON = new JSONObject();
+        cacheJSON.put("state_version", module.getCluster().getStateVersion());
+        cacheJSON.put("size", cache.size());
+        cacheJSON.put("hits", cache.getHits());
+        cacheJSON.put("misses", cache.getMisses());
+        cacheJSON.put("hit_rate", cache.getHitRate());
+
+        JSONObject samplingJSON = new JSONObject();
+        samplingJSON.put("actor_threshold", module.getCluster().getSamplingThreshold());
+        samplingJSON.put("samples", module.getCluster().getSamples());
+
+        FinalityTracker finalityTracker = module.getFinalityTracker();
+        JSONObject finalityJSON = new JSONObject();
+        finalityJSON.put("stability_window", finalityTracker.getStabilityWindow());
+        finalityJSON.put("finalized", finalityTracker.amountFinalized());
+        finalityJSON.put("pending", finalityTracker.amountPending());
+        finalityJSON.put("tracked", module.getConfidenceMonitor().amountTracked());
+        finalityJSON.put("tracking_ttl", module.getConfidenceMonitor().getTimeToLive());
+        finalityJSON.put("expired", module.getConfidenceMonitor().amountExpired());
+        finalityJSON.put("indexed", module.getConfidenceIndex().size());
+        finalityJSON.put("subscriptions", module.getSubscriptions().amountOfSubscriptions());
+
+        ConfidenceRequestProcessor requestProcessor = module.getConfidenceRequestProcessor();
+        JSONObject requestsJSON = new JSONObject();
+        requestsJSON.put("queue_depth", requestProcessor.getQueueDepth());
+        requestsJSON.put("workers", requestProcessor.getAmountOfWorkers());
+        requestsJSON.put("active_workers", requestProcessor.getActiveWorkers());
+        requestsJSON.put("requests", requestProcessor.getRequests());
+        requestsJSON.put("batches", requestProcessor.getBatches());
+        requestsJSON.put("deduplicated", requestProcessor.getDeduplicated());
+        requestsJSON.put("failed", requestProcessor.getFailed());
+        requestsJSON.put("average_batch_size", requestProcessor.getAverageBatchSize());
+        requestsJSON.put("average_latency_us", requestProcessor.getAverageLatency());
+        requestsJSON.put("max_latency_us", requestProcessor.getMaxLatency());
+
+        ActorTickScheduler tickScheduler = module.getTickScheduler();
+        JSONObject ticksJSON = new JSONObject();
+        ticksJSON.put("interval", tickScheduler.getInterval());
+        ticksJSON.put("period", tickScheduler.getPeriod());
+        ticksJSON.put("parallelism", tickScheduler.getParallelism());
+        ticksJSON.put("rounds", tickScheduler.getRounds());
+        ticksJSON.put("ticks", tickScheduler.getTicks());
+        ticksJSON.put("skipped", tickScheduler.getSkipped());
+        ticksJSON.put("last_duration", tickScheduler.getLastDuration());
+        ticksJSON.put("average_duration", tickScheduler.getAverageDuration());
+        ticksJSON.put("max_duration", tickScheduler.getMaxDuration());
+        ticksJSON.put("last_lag", tickScheduler.getLastLag());
+        ticksJSON.put("max_lag", tickScheduler.getMaxLag());
+
+        ValidationCache validationCache = module.getValidationCache();
+        JSONObject validationJSON = new JSONObject();
+        validationJSON.put("valid_transfers", validationCache.amountOfValidTransfers());
+        validationJSON.put("invalid_transfers", validationCache.amountOfInvalidTransfers());
+        validationJSON.put("balance_changes", validationCache.amountOfDeltas());
+
+        WriteBehindPersister persister = module.getPersister();
+        JSONObject persistenceJSON = new JSONObject();
+        persistenceJSON.put("journal_entries", module.getJournal().size());
+        persistenceJSON.put("dirty", persister.isDirty());
+        persistenceJSON.put("mutations", persister.getMutations());
+        persistenceJSON.put("writes", persister.getWrites());
+        persistenceJSON.put("failures", persister.getFailures());
+        persistenceJSON.put("last_duration", persister.getLastDuration());
+        persistenceJSON.put("max_duration", persister.getMaxDuration());
+
+        return new JSONObject().put("marker_pipeline", pipelineJSON).put("confidence_cache", cacheJSON)
+                .put("sampling", samplingJSON).put("finality", finalityJSON).put("confidence_requests", requestsJSON)
+                .put("actor_ticks", ticksJSON).put("validation", validationJSON).put("persistence", persistenceJSON);
+    }
+
     private JSONArray getActorsJSON() {
         JSONArray actorsJSON = new JSONArray();
         for(AutonomousEconomicActor actor : module.getAutonomousActors()) {
             JSONObject entry = new JSONObject();
             entry.put("address", actor.getAddress());
             entry.put("merkle_tree_index", actor.getMerkleTree().getIndex());
-            entry.put("merkle_tree_capacity", (int)Math.pow(2, actor.getMerkleTree().getDepth()));
+            entry.put("merkle_tree_capacity", actor.getMerkleTree().getCapacity());
+            entry.put("merkle_tree_leaves_left", actor.getMerkleTree().getLeavesLeft());
+            entry.put("pending_markers", actor.amountOfPendingMarkers());
+            entry.put("max_candidates", actor.getMaxCandidates());
             actorsJSON.put(entry);
         }
         return actorsJSON;
@@ -0,0 +1,222 @@
+package org.iota.ec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.iota.ec.model.AutonomousEconomicActor;
+import org.iota.ec.model.EconomicCluster;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Ticks all autonomous actors periodically. Each round creates one immutable {@link EconomicCluster.View} and lets all
+ * actors tick on it in parallel on a bounded pool, each actor on its own state. An actor is skipped if the cluster state
+ * has not changed since its last tick, because its tick would not produce anything new. If a round takes longer than the
+ * current period, the period is doubled (up to {@link #MAX_BACKOFF_FACTOR} times the interval) and then halved again
+ * with every round that finishes in time.
+ * */
+class ActorTickScheduler {
+
+    static final long DEFAULT_INTERVAL = 5000;
+    static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    static final int MAX_BACKOFF_FACTOR = 16;
+
+    private static final Logger logger = LogManager.getLogger("EC.ixi");
+
+    private final EconomicCluster cluster;
+    private final Supplier<Collection<AutonomousEconomicActor>> actors;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EC/ticker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService tickPool;
+    private final int parallelism;
+    // only accessed by the scheduling thread
+    private final Map<AutonomousEconomicActor, Long> lastTickedVersion = new WeakHashMap<>();
+
+    private long interval, period;
+    private long plannedAt;
+    private ScheduledFuture<?> next;
+    // incremented whenever the schedule is restarted, so that a running round of an older schedule does not continue it
+    private long generation;
+
+    private final LongAdder ticks = new LongAdder();
+    private volatile long skipped, rounds;
+    private volatile long lastDuration, maxDuration, totalDuration;
+    private volatile long lastLag, maxLag;
+
+    /**
+     * @param interval Milliseconds between two rounds of ticks. Not positive to pause ticking.
+     * @param parallelism Maximum amount of actors ticking at the same time.
+     * */
+    ActorTickScheduler(EconomicCluster cluster, Supplier<Collection<AutonomousEconomicActor>> actors, long interval, int parallelism) {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("'parallelism' must be positive.");
+        this.cluster = cluster;
+        this.actors = actors;
+        this.interval = interval;
+        this.parallelism = parallelism;
+        this.tickPool = Executors.newFixedThreadPool(parallelism, new TickThreadFactory());
+    }
+
+    synchronized void start() {
+        setInterval(interval);
+    }
+
+    /**
+     * Changes the interval and restarts the schedule with it. Resets any back off.
+     * @param interval Milliseconds between two rounds of ticks. Not positive to pause ticking.
+     * */
+    synchronized void setInterval(long interval) {
+        this.interval = interval;
+        this.period = interval;
+        generation++;
+        if(next != null)
+            next.cancel(false);
+        next = null;
+        if(interval > 0)
+            scheduleNext(interval, generation);
+    }
+
+    synchronized long getInterval() {
+        return interval;
+    }
+
+    synchronized long getPeriod() {
+        return period;
+    }
+
+    void terminate() {
+        executor.shutdownNow();
+        tickPool.shutdownNow();
+    }
+
+    private void tickAll(long generation) {
+        long startedAt = System.currentTimeMillis();
+        recordLag(startedAt - plannedAt);
+        try {
+            List<AutonomousEconomicActor> toTick = new LinkedList<>();
+            long version = cluster.getStateVersion();
+            for(AutonomousEconomicActor actor : actors.get()) {
+                Long lastVersion = lastTickedVersion.get(actor);
+                if(lastVersion != null && lastVersion == version)
+                    skipped++;
+                else
+                    toTick.add(actor);
+            }
+            if(toTick.size() > 0)
+                tickInParallel(toTick);
+        } catch (InterruptedException e) {
+            // terminated
+            return;
+        } catch (Throwable t) {
+            logger.error("failed ticking autonomous actors", t);
+        }
+
+        // the next round is scheduled even if this one failed
+        long duration = System.currentTimeMillis() - startedAt;
+        recordDuration(duration);
+        adaptAndScheduleNext(duration, generation);
+    }
+
+    private void tickInParallel(List<AutonomousEconomicActor> toTick) throws InterruptedException {
+        EconomicCluster.View view = cluster.createView(Collections.emptySet());
+        List<Callable<Void>> ticks = new ArrayList<>(toTick.size());
+        for(AutonomousEconomicActor actor : toTick) {
+            ticks.add(() -> {
+                try {
+                    actor.tick(view, Collections.emptySet());
+                } catch (Throwable t) {
+                    logger.error("failed ticking actor " + actor.getAddress(), t);
+                }
+                this.ticks.increment();
+                return null;
+            });
+        }
+        tickPool.invokeAll(ticks);
+        // the version read before creating the view, so that changes during this round cause the next one
+        for(AutonomousEconomicActor actor : toTick)
+            lastTickedVersion.put(actor, view.getStateVersion());
+    }
+
+    private synchronized void adaptAndScheduleNext(long duration, long generation) {
+        // the schedule was restarted during the round, the new one continues instead
+        if(generation != this.generation || interval <= 0)
+            return;
+        period = duration > period ? Math.min(period * 2, interval * MAX_BACKOFF_FACTOR) : Math.max(interval, period / 2);
+        scheduleNext(period, generation);
+    }
+
+    private synchronized void scheduleNext(long delay, long generation) {
+        plannedAt = System.currentTimeMillis() + delay;
+        next = executor.schedule(() -> tickAll(generation), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void recordLag(long lag) {
+        lastLag = lag;
+        maxLag = Math.max(maxLag, lag);
+    }
+
+    private void recordDuration(long duration) {
+        rounds++;
+        lastDuration = duration;
+        totalDuration += duration;
+        maxDuration = Math.max(maxDuration, duration);
+    }
+
+    /****** METRICS ******/
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    long getTicks() {
+        return ticks.sum();
+    }
+
+    long getSkipped() {
+        return skipped;
+    }
+
+    long getRounds() {
+        return rounds;
+    }
+
+    long getLastDuration() {
+        return lastDuration;
+    }
+
+    long getMaxDuration() {
+        return maxDuration;
+    }
+
+    double getAverageDuration() {
+        long rounds = this.rounds;
+        return rounds == 0 ? 0 : totalDuration / (double) rounds;
+    }
+
+    /**
+     * @return Milliseconds by which the last round started later than planned.
+     * */
+    long getLastLag() {
+        return lastLag;
+    }
+
+    long getMaxLag() {
+        return maxLag;
+    }
+
+    private static class TickThreadFactory implements ThreadFactory {
+        private int created = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EC/tick-" + created++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.iota.ec;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Secondary index over all transactions tracked by the {@link ConfidenceMonitor}, ordered by their current cluster
+ * confidence and by the order in which their confidence last changed. Updated incrementally on every change, so both
+ * range queries ("all transactions above X") and change feeds ("everything since cursor Y") only touch the result.
+ * Transactions are indexed as soon as they are tracked, so that those whose confidence stays at 0 (e.g. contested ones)
+ * are found as well. Finalized transactions remain in the index with their last known confidence until they have been
+ * final for a retention period (see {@link #evictFinalized(long)}), so that clients following the change feed still
+ * see them. Expired ones are removed right away.
+ * */
+class ConfidenceIndex implements ConfidenceMonitor.Listener {
+
+    private static final Comparator<Entry> BY_CONFIDENCE_DESCENDING = (a, b) -> {
+        int byConfidence = -Double.compare(a.confidence, b.confidence);
+        return byConfidence != 0 ? byConfidence : a.hash.compareTo(b.hash);
+    };
+
+    // hashes only consist of trytes (A-Z and 9), these bounds are lower/greater than any hash
+    private static final String LOWEST_HASH = "", HIGHEST_HASH = "~";
+
+    private final TreeSet<Entry> byConfidence = new TreeSet<>(BY_CONFIDENCE_DESCENDING);
+    private final TreeMap<Long, Entry> byChange = new TreeMap<>();
+    private final Map<String, Entry> byHash = new HashMap<>();
+    // time of finalization by hash, oldest first
+    private final LinkedHashMap<String, Long> finalizedAt = new LinkedHashMap<>();
+    private long lastChange = 0;
+
+    @Override
+    public synchronized void onTracked(ConfidenceMonitor.TrackedTransaction transaction) {
+        // might have been evaluated concurrently already
+        if(!byHash.containsKey(transaction.hash))
+            put(transaction, transaction.getConfidence());
+    }
+
+    @Override
+    public synchronized void onConfidenceChanged(ConfidenceMonitor.TrackedTransaction transaction, double oldConfidence, double newConfidence) {
+        Entry previous = byHash.get(transaction.hash);
+        if(previous != null) {
+            byConfidence.remove(previous);
+            byChange.remove(previous.change);
+        }
+        put(transaction, newConfidence);
+    }
+
+    @Override
+    public synchronized void onUntracked(ConfidenceMonitor.TrackedTransaction transaction) {
+        remove(transaction.hash);
+    }
+
+    @Override
+    public synchronized void onFinalized(ConfidenceMonitor.TrackedTransaction transaction) {
+        if(byHash.containsKey(transaction.hash))
+            finalizedAt.put(transaction.hash, System.currentTimeMillis());
+    }
+
+    /**
+     * Removes finalized transactions once they have been final for the retention period. Call periodically.
+     * @param retention Milliseconds a finalized transaction stays in the index.
+     * */
+    synchronized void evictFinalized(long retention) {
+        long finalizedBefore = System.currentTimeMillis() - retention;
+        Iterator<Map.Entry<String, Long>> iterator = finalizedAt.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> finalized = iterator.next();
+            if(finalized.getValue() > finalizedBefore)
+                break;
+            iterator.remove();
+            remove(finalized.getKey());
+        }
+    }
+
+    private void remove(String hash) {
+        Entry entry = byHash.remove(hash);
+        if(entry != null) {
+            byConfidence.remove(entry);
+            byChange.remove(entry.change);
+        }
+        finalizedAt.remove(hash);
+    }
+
+    private void put(ConfidenceMonitor.TrackedTransaction transaction, double confidence) {
+        Entry entry = new Entry(transaction.hash, transaction.address, transaction.value, confidence, ++lastChange);
+        byHash.put(entry.hash, entry);
+        byConfidence.add(entry);
+        byChange.put(entry.change, entry);
+    }
+
+    /**
+     * @param minConfidence Lower bound of the confidence range (inclusive).
+     * @param maxConfidence Upper bound of the confidence range (inclusive).
+     * @param offset Amount of matching entries to skip, for paging.
+     * @param limit Maximum amount of entries to return.
+     * @return Matching entries, ordered by descending confidence.
+     * */
+    synchronized List<Entry> findByConfidence(double minConfidence, double maxConfidence, int offset, int limit) {
+        List<Entry> result = new LinkedList<>();
+        if(minConfidence > maxConfidence)
+            return result;
+        Entry from = new Entry(LOWEST_HASH, null, null, maxConfidence, 0);
+        Entry to = new Entry(HIGHEST_HASH, null, null, minConfidence, 0);
+        Iterator<Entry> iterator = byConfidence.subSet(from, true, to, true).iterator();
+        for(int skipped = 0; skipped < offset && iterator.hasNext(); skipped++)
+            iterator.next();
+        while (iterator.hasNext() && result.size() < limit)
+            result.add(iterator.next());
+        return result;
+    }
+
+    /**
+     * @param cursor Only entries which changed after this cursor are returned. 0 to start from the beginning.
+     * @param limit Maximum amount of entries to return.
+     * @return Entries ordered by the time of their last change. The {@link Entry#change} of the last one is the cursor
+     *         for the next page.
+     * */
+    synchronized List<Entry> findChangedSince(long cursor, int limit) {
+        List<Entry> result = new LinkedList<>();
+        for(Entry entry : byChange.tailMap(cursor, false).values()) {
+            if(result.size() >= limit)
+                break;
+            result.add(entry);
+        }
+        return result;
+    }
+
+    synchronized int size() {
+        return byHash.size();
+    }
+
+    static class Entry {
+        final String hash;
+        final String address;
+        final BigInteger value;
+        final double confidence;
+        /** Sequence number of the change which produced this entry. Used as cursor. */
+        final long change;
+
+        private Entry(String hash, String address, BigInteger value, double confidence, long change) {
+            this.hash = hash;
+            this.address = address;
+            this.value = value;
+            this.confidence = confidence;
+            this.change = change;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.iota.ec;
+
+import org.iota.ec.model.EconomicCluster;
+import org.iota.ict.eee.Environment;
+import org.iota.ict.ixi.Ixi;
+import org.iota.ict.model.transaction.Transaction;
+import org.iota.ict.network.gossip.GossipEvent;
+import org.iota.ict.network.gossip.GossipListener;
+import org.iota.ict.utils.Constants;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the cluster confidence of value transactions and informs {@link Listener}s once tracking starts and
+ * whenever it changes. Instead of being asked on every query, the cluster is only asked again once its state version has
+ * advanced, and then in a single batch. Transactions finalized by the {@link FinalityTracker} are no longer tracked.
+ * Transactions which are only tracked because they were received via gossip expire after a time to live, unless they
+ * are about to be finalized. Otherwise those which never confirm (e.g. double-spends) would be evaluated forever.
+ * Transactions and addresses requested by subscriptions are reference-counted and stay tracked until the last request
+ * has been released.
+ * */
+class ConfidenceMonitor implements GossipListener {
+
+    static final long DEFAULT_TIME_TO_LIVE = 60 * 60 * 1000;
+
+    private final Ixi ixi;
+    private final EconomicCluster cluster;
+    private final FinalityTracker finalityTracker;
+    private final List<Listener> listeners = new LinkedList<>();
+    private final Map<String, TrackedTransaction> tracked = new ConcurrentHashMap<>();
+    private final Set<String> trackedAddresses = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> requestedAddresses = new ConcurrentHashMap<>();
+    private final Map<String, Integer> requestedTransactions = new ConcurrentHashMap<>();
+    private final Set<String> awaitedTransactions = ConcurrentHashMap.newKeySet();
+    private long lastRefreshedVersion = -1;
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+    private volatile long expired;
+
+    ConfidenceMonitor(Ixi ixi, EconomicCluster cluster, FinalityTracker finalityTracker) {
+        this.ixi = ixi;
+        this.cluster = cluster;
+        this.finalityTracker = finalityTracker;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void onReceive(GossipEvent event) {
+        Transaction transaction = event.getTransaction();
+        if(awaitedTransactions.remove(transaction.hash) || !transaction.value.equals(BigInteger.ZERO))
+            track(transaction);
+    }
+
+    @Override
+    public Environment getEnvironment() {
+        return Constants.Environments.GOSSIP;
+    }
+
+    /**
+     * Starts tracking all value transactions on an address which have been received before this monitor was listening
+     * to gossip. The address stays tracked for good. Does nothing if the address is already tracked. Newly found
+     * transactions are evaluated right away.
+     * */
+    void trackAddress(String address) {
+        if(trackedAddresses.add(address) && !requestedAddresses.containsKey(address))
+            trackTransactionsOnAddress(address);
+    }
+
+    /**
+     * Like {@link #trackAddress(String)}, but the address is only tracked until {@link #releaseAddress(String)} has
+     * been called as often as this method.
+     * */
+    void requestAddress(String address) {
+        if(requestedAddresses.merge(address, 1, Integer::sum) == 1 && !trackedAddresses.contains(address))
+            trackTransactionsOnAddress(address);
+    }
+
+    /**
+     * Releases a request of {@link #requestAddress(String)}. Once the last request is released, transactions on that
+     * address are no longer tracked unless something else still requires them.
+     * */
+    void releaseAddress(String address) {
+        if(!release(requestedAddresses, address))
+            return;
+        for(TrackedTransaction transaction : tracked.values())
+            if(transaction.address.equals(address))
+                untrackUnlessRequired(transaction);
+    }
+
+    /**
+     * Starts tracking a single transaction, regardless of its value, until {@link #releaseTransaction(String)} has been
+     * called as often as this method. If the transaction has not been received yet, it will be tracked as soon as it
+     * arrives via gossip. Requested transactions do not expire. A transaction which is already tracked is not evaluated
+     * again, use {@link #getTracked(String)} to read its current confidence.
+     * */
+    void requestTransaction(String hash) {
+        requestedTransactions.merge(hash, 1, Integer::sum);
+        if(tracked.containsKey(hash) || finalityTracker.isFinalized(hash))
+            return;
+        Transaction transaction = ixi.findTransactionByHash(hash);
+        if(transaction == null) {
+            awaitedTransactions.add(hash);
+            return;
+        }
+        TrackedTransaction trackedTransaction = track(transaction);
+        if(trackedTransaction != null)
+            evaluate(Collections.singleton(trackedTransaction));
+    }
+
+    /**
+     * Releases a request of {@link #requestTransaction(String)}. Once the last request is released, the transaction is
+     * no longer tracked unless something else still requires it.
+     * */
+    void releaseTransaction(String hash) {
+        if(!release(requestedTransactions, hash))
+            return;
+        awaitedTransactions.remove(hash);
+        TrackedTransaction transaction = tracked.get(hash);
+        if(transaction != null)
+            untrackUnlessRequired(transaction);
+    }
+
+    /**
+     * @return The tracked transaction or {@code null} if it is not tracked.
+     * */
+    TrackedTransaction getTracked(String hash) {
+        return tracked.get(hash);
+    }
+
+    List<TrackedTransaction> getTrackedOnAddress(String address) {
+        List<TrackedTransaction> onAddress = new LinkedList<>();
+        for(TrackedTransaction transaction : tracked.values())
+            if(transaction.address.equals(address))
+                onAddress.add(transaction);
+        return onAddress;
+    }
+
+    private void trackTransactionsOnAddress(String address) {
+        List<TrackedTransaction> newlyTracked = new LinkedList<>();
+        for(Transaction transaction : ixi.findTransactionsByAddress(address)) {
+            if(transaction.value.equals(BigInteger.ZERO))
+                continue;
+            TrackedTransaction trackedTransaction = track(transaction);
+            if(trackedTransaction != null)
+                newlyTracked.add(trackedTransaction);
+        }
+        if(newlyTracked.size() > 0)
+            evaluate(newlyTracked);
+    }
+
+    /**
+     * @return The newly tracked transaction or {@code null} if it is already tracked or finalized.
+     * */
+    private TrackedTransaction track(Transaction transaction) {
+        if(finalityTracker.isFinalized(transaction.hash))
+            return null;
+        TrackedTransaction trackedTransaction = new TrackedTransaction(transaction.hash, transaction.address(), transaction.value);
+        if(tracked.putIfAbsent(transaction.hash, trackedTransaction) != null)
+            return null;
+        for(Listener listener : listeners)
+            listener.onTracked(trackedTransaction);
+        return trackedTransaction;
+    }
+
+    /**
+     * @return Whether the last request for {@code key} has been released.
+     * */
+    private static boolean release(Map<String, Integer> requests, String key) {
+        return requests.computeIfPresent(key, (k, amount) -> amount > 1 ? amount - 1 : null) == null;
+    }
+
+    /**
+     * Re-evaluates all tracked transactions, but only if the cluster has changed since the last refresh or some
+     * transaction is waiting for its stability window to pass. Expired transactions are dropped first.
+     * */
+    void refresh() {
+        expire();
+        long version = cluster.getStateVersion();
+        if(version == lastRefreshedVersion && finalityTracker.amountPending() == 0)
+            return;
+        lastRefreshedVersion = version;
+        evaluate(new ArrayList<>(tracked.values()));
+    }
+
+    private synchronized void evaluate(Collection<TrackedTransaction> transactions) {
+        List<String> hashes = new ArrayList<>(transactions.size());
+        for(TrackedTransaction transaction : transactions)
+            hashes.add(transaction.hash);
+        EconomicCluster.Approvals approvals = cluster.determineApprovalConfidences(hashes);
+
+        for(TrackedTransaction transaction : transactions) {
+            double oldConfidence = transaction.confidence;
+            double newConfidence = approvals.getConfidence(transaction.hash);
+            if(oldConfidence != newConfidence) {
+                transaction.confidence = newConfidence;
+                for(Listener listener : listeners)
+                    listener.onConfidenceChanged(transaction, oldConfidence, newConfidence);
+            }
+            if(finalityTracker.observe(transaction.hash, newConfidence) && tracked.remove(transaction.hash, transaction))
+                for(Listener listener : listeners)
+                    listener.onFinalized(transaction);
+        }
+    }
+
+    /**
+     * Stops tracking transactions which have been tracked for longer than the time to live without being finalized.
+     * Transactions which are still required (see {@link #isRequired(TrackedTransaction)}) are kept.
+     * */
+    private synchronized void expire() {
+        long trackedBefore = System.currentTimeMillis() - timeToLive;
+        for(TrackedTransaction transaction : tracked.values())
+            if(transaction.trackedSince < trackedBefore && !isRequired(transaction) && untrack(transaction))
+                expired++;
+    }
+
+    private synchronized void untrackUnlessRequired(TrackedTransaction transaction) {
+        if(!isRequired(transaction))
+            untrack(transaction);
+    }
+
+    /**
+     * @return Whether the transaction is requested, on a tracked address or above the confirmation threshold (and thus
+     *         waiting for its stability window).
+     * */
+    private boolean isRequired(TrackedTransaction transaction) {
+        return requestedTransactions.containsKey(transaction.hash) || trackedAddresses.contains(transaction.address)
+                || requestedAddresses.containsKey(transaction.address) || finalityTracker.isPending(transaction.hash);
+    }
+
+    private boolean untrack(TrackedTransaction transaction) {
+        if(!tracked.remove(transaction.hash, transaction))
+            return false;
+        for(Listener listener : listeners)
+            listener.onUntracked(transaction);
+        return true;
+    }
+
+    /**
+     * @param timeToLive Milliseconds after which transactions received via gossip are no longer tracked.
+     * */
+    void setTimeToLive(long timeToLive) {
+        if(timeToLive < 0)
+            throw new IllegalArgumentException("'timeToLive' must not be negative.");
+        this.timeToLive = timeToLive;
+    }
+
+    long getTimeToLive() {
+        return timeToLive;
+    }
+
+    int amountTracked() {
+        return tracked.size();
+    }
+
+    long amountExpired() {
+        return expired;
+    }
+
+    static class TrackedTransaction {
+        final String hash;
+        final String address;
+        final BigInteger value;
+        private final long trackedSince = System.currentTimeMillis();
+        private volatile double confidence = 0;
+
+        TrackedTransaction(String hash, String address, BigInteger value) {
+            this.hash = hash;
+            this.address = address;
+            this.value = value;
+        }
+
+        double getConfidence() {
+            return confidence;
+        }
+    }
+
+    interface Listener {
+        /**
+         * Called by the thread which started tracking the transaction, before its confidence is evaluated the first time.
+         * */
+        default void onTracked(TrackedTransaction transaction) { }
+
+        /**
+         * Called by the thread refreshing the {@link ConfidenceMonitor}, one transaction at a time.
+         * */
+        void onConfidenceChanged(TrackedTransaction transaction, double oldConfidence, double newConfidence);
+
+        /**
+         * Called when a transaction expired or was released without having been finalized. Its confidence is no longer
+         * updated.
+         * */
+        default void onUntracked(TrackedTransaction transaction) { }
+
+        /**
+         * Called by the thread refreshing the {@link ConfidenceMonitor} when a transaction has been finalized. It is no
+         * longer tracked and its confidence stays as last reported.
+         * */
+        default void onFinalized(TrackedTransaction transaction) { }
+    }
+}
@@ -0,0 +1,166 @@
+package org.iota.ec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.iota.ec.model.EconomicCluster;
+import org.iota.ict.eee.call.EEEFunction;
+import org.iota.ict.ixi.Ixi;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers confidence requests of the EEE {@code confidence} function in batches. The dispatching thread drains all
+ * waiting requests at once and hands them to a worker pool, which resolves all distinct hashes of a batch with a single
+ * bulk query to the {@link EconomicCluster}. When all workers are busy, the dispatcher resolves the batch itself, which
+ * lets requests pile up in the queue and the next batch grow instead of the worker queue.
+ * */
+class ConfidenceRequestProcessor {
+
+    static final int DEFAULT_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    static final int MAX_BATCH_SIZE = 1000;
+    // parses as a number, but not as a valid confidence
+    static final String ERROR_RESPONSE = "NaN";
+
+    private static final Logger logger = LogManager.getLogger("EC.ixi");
+
+    private final Ixi ixi;
+    private final EconomicCluster cluster;
+    private final BlockingQueue<EEEFunction.Request> requestQueue;
+    private final ThreadPoolExecutor workers;
+
+    private final LongAdder requests = new LongAdder(), batches = new LongAdder(), deduplicated = new LongAdder(), failed = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    ConfidenceRequestProcessor(Ixi ixi, EconomicCluster cluster, BlockingQueue<EEEFunction.Request> requestQueue, int amountOfWorkers) {
+        if(amountOfWorkers < 1)
+            throw new IllegalArgumentException("'amountOfWorkers' must be positive.");
+        this.ixi = ixi;
+        this.cluster = cluster;
+        this.requestQueue = requestQueue;
+        this.workers = new ThreadPoolExecutor(amountOfWorkers, amountOfWorkers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(amountOfWorkers), new WorkerThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Blocks until at least one request is available, then dispatches all waiting requests as one batch.
+     * */
+    void processNextBatch() throws InterruptedException {
+        List<EEEFunction.Request> batch = new ArrayList<>();
+        batch.add(requestQueue.take());
+        requestQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+        long dequeuedAt = System.nanoTime();
+        workers.execute(() -> resolve(batch, dequeuedAt));
+    }
+
+    /**
+     * Answers every request of the batch, with {@link #ERROR_RESPONSE} if the confidences could not be determined, so that
+     * no caller is left waiting and no failure escapes to the dispatching thread.
+     * */
+    private void resolve(List<EEEFunction.Request> batch, long dequeuedAt) {
+        List<String> arguments = new ArrayList<>(batch.size());
+        for(EEEFunction.Request request : batch)
+            arguments.add(request.argument);
+        int answered = 0;
+        try {
+            String[] responses = determineResponses(arguments);
+            for(; answered < batch.size(); answered++)
+                batch.get(answered).submitReturn(ixi, responses[answered]);
+        } catch (Throwable t) {
+            logger.error("failed resolving confidence requests", t);
+            for(EEEFunction.Request request : batch.subList(answered, batch.size())) {
+                try {
+                    request.submitReturn(ixi, ERROR_RESPONSE);
+                } catch (Throwable ignored) {
+                    // nothing left to do for this request
+                }
+            }
+            failed.add(batch.size() - answered);
+        }
+
+        long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dequeuedAt);
+        requests.add(batch.size());
+        batches.increment();
+        totalLatency.add(latency * batch.size());
+        maxLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Resolves all distinct hashes with a single bulk query.
+     * @param arguments Hashes of a batch, duplicates allowed.
+     * @return The confidence of the i-th hash at position i.
+     * */
+    String[] determineResponses(List<String> arguments) {
+        EconomicCluster.Approvals approvals = cluster.determineApprovalConfidences(arguments);
+        deduplicated.add(arguments.size() - approvals.size());
+        String[] responses = new String[arguments.size()];
+        for(int i = 0; i < responses.length; i++)
+            responses[i] = ""+approvals.getConfidence(arguments.get(i));
+        return responses;
+    }
+
+    void terminate() {
+        workers.shutdownNow();
+    }
+
+    /****** METRICS ******/
+
+    int getQueueDepth() {
+        return requestQueue.size();
+    }
+
+    int getAmountOfWorkers() {
+        return workers.getMaximumPoolSize();
+    }
+
+    int getActiveWorkers() {
+        return workers.getActiveCount();
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getBatches() {
+        return batches.sum();
+    }
+
+    long getFailed() {
+        return failed.sum();
+    }
+
+    long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    double getAverageBatchSize() {
+        long batches = getBatches();
+        return batches == 0 ? 0 : getRequests() / (double) batches;
+    }
+
+    /**
+     * @return Average time in microseconds from taking a request from the queue until answering it.
+     * */
+    double getAverageLatency() {
+        long requests = getRequests();
+        return requests == 0 ? 0 : totalLatency.sum() / (double) requests;
+    }
+
+    long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private int created = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EC/confidence-" + created++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
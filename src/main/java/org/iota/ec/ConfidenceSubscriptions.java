@@ -0,0 +1,176 @@
+package org.iota.ec;
+
+import org.iota.ict.eee.Environment;
+import org.iota.ict.ixi.Ixi;
+import org.iota.ict.model.bundle.Bundle;
+import org.iota.ict.model.transaction.Transaction;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes confidence changes to subscribers instead of letting them poll. Each subscription watches transactions (by
+ * hash, by address or by bundle) and receives an event in its own EEE environment whenever the confidence of a watched
+ * transaction crosses one of its thresholds or has moved by at least its delta since the last event. Since events are
+ * driven by the {@link ConfidenceMonitor}, watched transactions cost nothing while the cluster does not change.
+ * */
+class ConfidenceSubscriptions implements ConfidenceMonitor.Listener {
+
+    static final String EVENT_ENVIRONMENT_PREFIX = "EC.ixi/confidence_events/";
+
+    private final Ixi ixi;
+    private final ConfidenceMonitor confidenceMonitor;
+    private final AtomicLong lastID = new AtomicLong();
+    private final Map<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> subscriptionsByHash = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> subscriptionsByAddress = new ConcurrentHashMap<>();
+
+    ConfidenceSubscriptions(Ixi ixi, ConfidenceMonitor confidenceMonitor) {
+        this.ixi = ixi;
+        this.confidenceMonitor = confidenceMonitor;
+    }
+
+    /**
+     * @param hashes Hashes of transactions to watch.
+     * @param addresses Addresses whose value transactions to watch.
+     * @param bundleHeads Bundle heads of complete bundles whose transactions to watch.
+     * @param thresholds Confidences whose crossing (in either direction) triggers an event.
+     * @param delta Minimum confidence change since the last event which triggers an event. 0 to disable.
+     * @return The created subscription.
+     * */
+    Subscription subscribe(Collection<String> hashes, Collection<String> addresses, Collection<String> bundleHeads, double[] thresholds, double delta) {
+        if(delta < 0 || delta > 1)
+            throw new IllegalArgumentException("'delta' must be within interval [0, 1].");
+        for(double threshold : thresholds)
+            if(threshold < 0 || threshold > 1)
+                throw new IllegalArgumentException("'thresholds' must be within interval [0, 1].");
+
+        Set<String> watchedHashes = new HashSet<>(hashes);
+        for(String bundleHead : bundleHeads)
+            watchedHashes.addAll(findBundleTransactions(bundleHead));
+
+        Subscription subscription = new Subscription(lastID.incrementAndGet(), watchedHashes, new HashSet<>(addresses), thresholds, delta);
+        subscriptions.put(subscription.id, subscription);
+        for(String hash : subscription.hashes)
+            subscriptionsByHash.computeIfAbsent(hash, h -> ConcurrentHashMap.newKeySet()).add(subscription);
+        for(String address : subscription.addresses)
+            subscriptionsByAddress.computeIfAbsent(address, a -> ConcurrentHashMap.newKeySet()).add(subscription);
+
+        // registered before tracking so that the evaluation of newly tracked transactions already emits events
+        for(String hash : subscription.hashes)
+            confidenceMonitor.requestTransaction(hash);
+        for(String address : subscription.addresses)
+            confidenceMonitor.requestAddress(address);
+
+        // transactions which were tracked before are not evaluated again, so their current confidence is reported here
+        for(String hash : subscription.hashes) {
+            ConfidenceMonitor.TrackedTransaction transaction = confidenceMonitor.getTracked(hash);
+            if(transaction != null)
+                notifyInitially(subscription, transaction);
+        }
+        for(String address : subscription.addresses)
+            for(ConfidenceMonitor.TrackedTransaction transaction : confidenceMonitor.getTrackedOnAddress(address))
+                notifyInitially(subscription, transaction);
+        return subscription;
+    }
+
+    void unsubscribe(long id) {
+        Subscription subscription = subscriptions.remove(id);
+        if(subscription == null)
+            throw new IllegalArgumentException("There is no subscription with id " + id + ".");
+        for(String hash : subscription.hashes)
+            removeFromIndex(subscriptionsByHash, hash, subscription);
+        for(String address : subscription.addresses)
+            removeFromIndex(subscriptionsByAddress, address, subscription);
+        for(String hash : subscription.hashes)
+            confidenceMonitor.releaseTransaction(hash);
+        for(String address : subscription.addresses)
+            confidenceMonitor.releaseAddress(address);
+    }
+
+    @Override
+    public void onConfidenceChanged(ConfidenceMonitor.TrackedTransaction transaction, double oldConfidence, double newConfidence) {
+        Set<Subscription> affected = new HashSet<>(subscriptionsByHash.getOrDefault(transaction.hash, Collections.emptySet()));
+        affected.addAll(subscriptionsByAddress.getOrDefault(transaction.address, Collections.emptySet()));
+        for(Subscription subscription : affected) {
+            if(subscription.shouldNotify(transaction.hash, oldConfidence, newConfidence))
+                ixi.submitEffect(subscription.environment, subscription.createEvent(transaction, oldConfidence, newConfidence));
+        }
+    }
+
+    /**
+     * Treats the current confidence as a change from 0. Does nothing if the evaluation which started tracking the
+     * transaction has already notified the subscription.
+     * */
+    private void notifyInitially(Subscription subscription, ConfidenceMonitor.TrackedTransaction transaction) {
+        double confidence = transaction.getConfidence();
+        if(subscription.shouldNotify(transaction.hash, 0, confidence))
+            ixi.submitEffect(subscription.environment, subscription.createEvent(transaction, 0, confidence));
+    }
+
+    int amountOfSubscriptions() {
+        return subscriptions.size();
+    }
+
+    private List<String> findBundleTransactions(String bundleHead) {
+        Transaction head = ixi.findTransactionByHash(bundleHead);
+        if(head == null)
+            throw new IllegalArgumentException("Could not find bundle head " + bundleHead + ".");
+        Bundle bundle = new Bundle(head);
+        if(!bundle.isComplete())
+            throw new IllegalArgumentException("Bundle " + bundleHead + " is not complete.");
+        List<String> hashes = new LinkedList<>();
+        for(Transaction transaction : bundle.getTransactions())
+            hashes.add(transaction.hash);
+        return hashes;
+    }
+
+    private static void removeFromIndex(Map<String, Set<Subscription>> index, String key, Subscription subscription) {
+        index.computeIfPresent(key, (k, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    static class Subscription {
+        final long id;
+        final Environment environment;
+        final String environmentName;
+        private final Set<String> hashes, addresses;
+        private final double[] thresholds;
+        private final double delta;
+        private final Map<String, Double> lastNotified = new ConcurrentHashMap<>();
+
+        private Subscription(long id, Set<String> hashes, Set<String> addresses, double[] thresholds, double delta) {
+            this.id = id;
+            this.environmentName = EVENT_ENVIRONMENT_PREFIX + id;
+            this.environment = new Environment(environmentName);
+            this.hashes = hashes;
+            this.addresses = addresses;
+            this.thresholds = thresholds.clone();
+            this.delta = delta;
+        }
+
+        private boolean shouldNotify(String hash, double oldConfidence, double newConfidence) {
+            double reference = lastNotified.getOrDefault(hash, oldConfidence);
+            boolean notify = delta > 0 && Math.abs(newConfidence - reference) >= delta;
+            for(int i = 0; i < thresholds.length && !notify; i++)
+                notify = (reference > thresholds[i]) != (newConfidence > thresholds[i]);
+            if(notify)
+                lastNotified.put(hash, newConfidence);
+            return notify;
+        }
+
+        private String createEvent(ConfidenceMonitor.TrackedTransaction transaction, double oldConfidence, double newConfidence) {
+            return new JSONObject()
+                    .put("subscription", id)
+                    .put("hash", transaction.hash)
+                    .put("address", transaction.address)
+                    .put("previous_confidence", oldConfidence)
+                    .put("confidence", newConfidence)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.iota.ec;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Materialized sum of all confirmed value transactions per address. Updated by the {@link ConfidenceMonitor} whenever
+ * a transaction crosses the confirmation threshold, in either direction. Reading a balance is a single map lookup.
+ * Initial balances are not included.
+ * */
+class ConfirmedBalanceLedger implements ConfidenceMonitor.Listener {
+
+    private final double confirmationConfidence;
+    private final Map<String, BigInteger> confirmedBalances = new ConcurrentHashMap<>();
+
+    ConfirmedBalanceLedger(double confirmationConfidence) {
+        this.confirmationConfidence = confirmationConfidence;
+    }
+
+    @Override
+    public void onConfidenceChanged(ConfidenceMonitor.TrackedTransaction transaction, double oldConfidence, double newConfidence) {
+        boolean wasConfirmed = oldConfidence > confirmationConfidence;
+        boolean isConfirmed = newConfidence > confirmationConfidence;
+        if(wasConfirmed != isConfirmed)
+            confirmedBalances.merge(transaction.address, isConfirmed ? transaction.value : transaction.value.negate(), BigInteger::add);
+    }
+
+    BigInteger getConfirmedBalance(String address) {
+        return confirmedBalances.getOrDefault(address, BigInteger.ZERO);
+    }
+}
@@ -2,11 +2,15 @@ package org.iota.ec;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.iota.ec.model.ActorSnapshotStore;
 import org.iota.ec.model.AutonomousEconomicActor;
 import org.iota.ec.model.EconomicActor;
+import org.iota.ec.model.RetentionPolicy;
 import org.iota.ec.model.TrustedEconomicActor;
+import org.iota.ec.model.ValidationCache;
 import org.iota.ec.model.EconomicCluster;
-import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
+import org.iota.ec.util.HierarchicalMerkleTree;
+import org.iota.ec.util.IndexableMerkleTree;
 import org.iota.ict.eee.call.EEEFunction;
 import org.iota.ict.eee.call.FunctionEnvironment;
 import org.iota.ict.ixi.Ixi;
@@ -29,27 +33,75 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ECModule extends IxiModule {
 
     private static final int TRANSFER_SECURITY = 1;
     private static final double CONFIRMATION_CONFIDENCE = 0.95;
+    private static final long FINALITY_STABILITY_WINDOW = 10 * 60 * 1000;
+    private static final long CONFIDENCE_REFRESH_INTERVAL = 1000;
+    private static final long MAINTENANCE_INTERVAL = 60 * 1000;
     private static final Logger logger = LogManager.getLogger("EC.ixi");
     private static final String WEB_GUI_LOCATION = "./web/dist/modules/EC.ixi";
 
     private final EEEFunction confidenceEEEFunction = new EEEFunction(new FunctionEnvironment("EC.ixi", "confidence"));
+    private final EEEFunction subscriptionEEEFunction = new EEEFunction(new FunctionEnvironment("EC.ixi", "subscription"));
     private final API api;
     private final EconomicCluster cluster;
-    private final List<AutonomousEconomicActor> autonomousActors = new LinkedList<>();
-    private final List<String> transfers = new LinkedList<>();
-    private final Map<String, BigInteger> initialBalances = new HashMap<>();
+    private final List<AutonomousEconomicActor> autonomousActors = new CopyOnWriteArrayList<>();
+    // also read by the persister thread
+    private final List<String> transfers = Collections.synchronizedList(new LinkedList<>());
+    private final Map<String, BigInteger> initialBalances = new ConcurrentHashMap<>();
+    private final ValidationCache validationCache = new ValidationCache();
+    private final FinalityTracker finalityTracker = new FinalityTracker(CONFIRMATION_CONFIDENCE, FINALITY_STABILITY_WINDOW);
+    private final ConfidenceMonitor confidenceMonitor;
+    private final ConfirmedBalanceLedger ledger = new ConfirmedBalanceLedger(CONFIRMATION_CONFIDENCE);
+    private final ConfidenceIndex confidenceIndex = new ConfidenceIndex();
+    private final ConfidenceSubscriptions subscriptions;
+    private final ConfidenceRequestProcessor confidenceRequestProcessor;
+    private final ActorTickScheduler tickScheduler;
+    private final WriteBehindPersister persister = new WriteBehindPersister(() -> Persistence.store(this), WriteBehindPersister.DEFAULT_DELAY);
+    private final Path directory;
+    private final Journal journal;
+    private final ScheduledExecutorService monitorExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EC/monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Thread subscriptionThread = new Thread(this::processSubscriptionRequests, "EC/subscriptions");
 
     private final IxiContext context = new ECContext();
 
     public ECModule(Ixi ixi) {
+        this(ixi, Paths.get(""), Journal.DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param directory Directory in which the state is persisted.
+     * @param compactionThreshold Amount of journal entries after which the journal is compacted into a new snapshot.
+     * */
+    ECModule(Ixi ixi, Path directory, int compactionThreshold) {
         super(ixi);
+        this.directory = directory;
+        this.journal = new Journal(directory.resolve("persistence.journal"), compactionThreshold, this::requestCompaction);
         this.cluster = new EconomicCluster(ixi);
+        cluster.setSnapshotStore(new ActorSnapshotStore(directory.resolve("ec_snapshots")));
+        this.confidenceMonitor = new ConfidenceMonitor(ixi, cluster, finalityTracker);
+        confidenceMonitor.addListener(ledger);
+        confidenceMonitor.addListener(confidenceIndex);
+        this.subscriptions = new ConfidenceSubscriptions(ixi, confidenceMonitor);
+        confidenceMonitor.addListener(subscriptions);
+        this.confidenceRequestProcessor = new ConfidenceRequestProcessor(ixi, cluster, confidenceEEEFunction.requestQueue, ConfidenceRequestProcessor.DEFAULT_WORKERS);
+        this.tickScheduler = new ActorTickScheduler(cluster, () -> autonomousActors, ActorTickScheduler.DEFAULT_INTERVAL, ActorTickScheduler.DEFAULT_PARALLELISM);
         this.api = new API(this);
     }
 
@@ -77,7 +129,7 @@ public class ECModule extends IxiModule {
     public void run() {
         while (isRunning()) {
             try {
-                processConfidenceRequest(confidenceEEEFunction.requestQueue.take());
+                confidenceRequestProcessor.processNextBatch();
             } catch (InterruptedException e) {
                 if(isRunning()) throw new RuntimeException(e);
             }
@@ -95,15 +147,53 @@ public class ECModule extends IxiModule {
         Persistence.load(this);
         logger.info("completed loading from persistence");
         ixi.addListener(confidenceEEEFunction);
+        ixi.addListener(subscriptionEEEFunction);
+        ixi.addListener(confidenceMonitor);
+        subscriptionThread.setDaemon(true);
+        subscriptionThread.start();
+        monitorExecutor.scheduleWithFixedDelay(this::refreshConfidenceMonitor, CONFIDENCE_REFRESH_INTERVAL, CONFIDENCE_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+        monitorExecutor.scheduleWithFixedDelay(this::maintainCluster, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+        tickScheduler.start();
+    }
+
+    private void refreshConfidenceMonitor() {
+        try {
+            confidenceMonitor.refresh();
+            // finalized transactions stay visible to clients for one finality window
+            confidenceIndex.evictFinalized(finalityTracker.getStabilityWindow());
+        } catch (Throwable t) {
+            logger.error("failed refreshing confidences", t);
+        }
+    }
+
+    private void maintainCluster() {
+        try {
+            cluster.enforceRetentionPolicies();
+            cluster.resolveDroppedTransactions();
+        } catch (Throwable t) {
+            logger.error("failed maintaining cluster", t);
+        }
     }
 
     @Override
     public void onTerminate() {
         logger.info("terminating EC, storing to persistence ...");
-        Persistence.store(this);
+        persister.terminate();
         logger.info("completed storing to persistence");
         ixi.removeListener(confidenceEEEFunction);
+        ixi.removeListener(subscriptionEEEFunction);
+        ixi.removeListener(confidenceMonitor);
+        subscriptionThread.interrupt();
+        monitorExecutor.shutdownNow();
+        tickScheduler.terminate();
+        confidenceRequestProcessor.terminate();
+        cluster.terminate();
         runningThread.interrupt();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private class ECContext extends SimpleIxiContext {
@@ -120,9 +210,45 @@ public class ECModule extends IxiModule {
 
     /****** SERVICES ******/
 
-    void processConfidenceRequest(EEEFunction.Request request) {
-        String hash = request.argument;
-        request.submitReturn(ixi, ""+cluster.determineApprovalConfidence(hash));
+    private void processSubscriptionRequests() {
+        while (isRunning()) {
+            try {
+                processSubscriptionRequest(subscriptionEEEFunction.requestQueue.take());
+            } catch (InterruptedException e) {
+                if(isRunning()) throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Expects a JSON object as argument. Either {@code {"action": "subscribe", "hashes": [...], "addresses": [...],
+     * "bundles": [...], "thresholds": [...], "delta": 0.1}}, returning the environment in which events will be
+     * published, or {@code {"action": "unsubscribe", "id": 1}}.
+     * */
+    void processSubscriptionRequest(EEEFunction.Request request) {
+        JSONObject response = new JSONObject().put("success", true);
+        try {
+            JSONObject requestJSON = new JSONObject(request.argument);
+            switch (requestJSON.getString("action")) {
+                case "subscribe":
+                    ConfidenceSubscriptions.Subscription subscription = subscriptions.subscribe(
+                            toStringList(requestJSON.optJSONArray("hashes")),
+                            toStringList(requestJSON.optJSONArray("addresses")),
+                            toStringList(requestJSON.optJSONArray("bundles")),
+                            toDoubleArray(requestJSON.optJSONArray("thresholds")),
+                            requestJSON.optDouble("delta", 0));
+                    response.put("id", subscription.id).put("environment", subscription.environmentName);
+                    break;
+                case "unsubscribe":
+                    subscriptions.unsubscribe(requestJSON.getLong("id"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown action '"+requestJSON.getString("action")+"'");
+            }
+        } catch (Throwable t) {
+            response = new JSONObject().put("success", false).put("error", t.toString());
+        }
+        request.submitReturn(ixi, response.toString());
     }
 
     void considerTangle(String actorAddress, String ref1, String ref2) {
@@ -136,6 +262,10 @@ public class ECModule extends IxiModule {
         return cluster.determineApprovalConfidence(hash);
     }
 
+    EconomicCluster.Approvals getConfidences(Collection<String> hashes) {
+        return cluster.determineApprovalConfidences(hashes);
+    }
+
     JSONArray getMarkers(String actorAddress) {
         TrustedEconomicActor actor = findTrustedActor(actorAddress);
         if(actor == null)
@@ -151,10 +281,24 @@ public class ECModule extends IxiModule {
         return markers;
     }
 
-    String createNewActor(SerializableAutoIndexableMerkleTree merkleTree) {
-        AutonomousEconomicActor actor = new AutonomousEconomicActor(ixi, cluster, initialBalances, merkleTree);
+    String createNewActor(IndexableMerkleTree merkleTree) {
+        return createNewActor(merkleTree, null);
+    }
+
+    /**
+     * @param expectedAddress Persisted address of the actor or {@code null} for new actors. Lets a stale Merkle tree cache be detected.
+     * */
+    String createNewActor(IndexableMerkleTree merkleTree, String expectedAddress) {
+        if(merkleTree instanceof HierarchicalMerkleTree)
+            ((HierarchicalMerkleTree) merkleTree).attachCache(directory.resolve("ec_merkle_cache"), expectedAddress);
+        AutonomousEconomicActor actor = new AutonomousEconomicActor(ixi, cluster, initialBalances, merkleTree, validationCache);
+        String address = actor.getAddress();
+        // journaled once per batch of reserved leaves, before they are signed with, so that none is used twice after a crash
+        merkleTree.setIndexListener(index -> journal.append("merkle_index", new JSONObject().put("address", address).put("index", index)));
         autonomousActors.add(actor);
-        return actor.getAddress();
+        // serialized only now, so that the entry contains leaves reserved in the meantime
+        journal.append("create_actor", new JSONObject().put("address", address).put("merkle_tree", merkleTree.toJSON()));
+        return address;
     }
 
     void deleteAutonomousActor(String address) {
@@ -162,20 +306,80 @@ public class ECModule extends IxiModule {
         if(actor == null)
             throw new IllegalArgumentException("You do not own an actor with address '"+address+"'.");
         autonomousActors.remove(actor);
+        actor.getMerkleTree().setIndexListener(null);
+        journal.append("delete_actor", new JSONObject().put("address", address));
     }
 
     void setTrust(String address, double trust) {
+        importTrust(Collections.singletonMap(address, trust), Collections.emptyMap());
+    }
+
+    /**
+     * Changes the trust of multiple actors at once. Actors which are not followed yet are synced in parallel. Like all
+     * mutations, the changes are only journaled once they have been applied. Otherwise a compaction in between would
+     * store a snapshot without them and discard their journal entries.
+     * @param trustByAddress New trust by actor address, 0 to stop following an actor.
+     * @param retentionPolicyByAddress Retention policies of (possibly new) actors with positive trust. May be incomplete.
+     * */
+    void importTrust(Map<String, Double> trustByAddress, Map<String, RetentionPolicy> retentionPolicyByAddress) {
+        // validate all first, so that an invalid entry does not leave the import half-done
+        for(double trust : trustByAddress.values())
+            if(trust < 0 || trust > 1)
+                throw new IllegalArgumentException("'trust' must be within interval [0,1].");
+
+        List<TrustedEconomicActor> toAdd = new LinkedList<>();
+        List<JSONObject> retentionPolicyEntries = new LinkedList<>();
+        for(Map.Entry<String, Double> entry : trustByAddress.entrySet()) {
+            String address = entry.getKey();
+            double trust = entry.getValue();
+
+            // actors which are still syncing are changed as well, so that the sync cannot undo the change
+            TrustedEconomicActor actor;
+            if((actor = cluster.findActorIncludingSyncing(address)) != null) {
+                cluster.setTrust(actor, trust);
+                if(trust == 0) {
+                    cluster.removeActor(actor);
+                }
+            } else if(trust > 0) {
+                actor = new TrustedEconomicActor(address, trust);
+                toAdd.add(actor);
+            }
 
-        TrustedEconomicActor actor;
-        if((actor = findTrustedActor(address)) != null) {
-            actor.setTrust(trust);
-            if(trust == 0) {
-                cluster.removeActor(actor);
+            RetentionPolicy retentionPolicy = retentionPolicyByAddress.get(address);
+            if(actor != null && trust > 0 && retentionPolicy != null) {
+                // before the sync of new actors, so that restored state is already subject to it
+                actor.setRetentionPolicy(retentionPolicy);
+                retentionPolicyEntries.add(new JSONObject().put("address", address).put("retention_policy", retentionPolicy.toJSON()));
             }
-        } else if(trust > 0) {
-            TrustedEconomicActor trustedEconomicActor = new TrustedEconomicActor(address, trust);
-            cluster.addActor(trustedEconomicActor, true);
         }
+        cluster.addActors(toAdd);
+
+        for(Map.Entry<String, Double> entry : trustByAddress.entrySet())
+            journal.append("set_trust", new JSONObject().put("address", entry.getKey()).put("trust", entry.getValue()));
+        for(JSONObject retentionPolicyEntry : retentionPolicyEntries)
+            journal.append("set_retention_policy", retentionPolicyEntry);
+    }
+
+    void setMarkerBudget(String address, double markersPerSecond, int burst, int leafReserve) {
+        AutonomousEconomicActor actor = findAutonomousActor(address);
+        if(actor == null)
+            throw new IllegalArgumentException("You do not own an actor with address '"+address+"'.");
+        actor.setMarkerBudget(markersPerSecond, burst, leafReserve);
+    }
+
+    void setMaxCandidates(String address, int maxCandidates) {
+        AutonomousEconomicActor actor = findAutonomousActor(address);
+        if(actor == null)
+            throw new IllegalArgumentException("You do not own an actor with address '"+address+"'.");
+        actor.setMaxCandidates(maxCandidates);
+    }
+
+    void setRetentionPolicy(String address, RetentionPolicy retentionPolicy) {
+        TrustedEconomicActor actor = cluster.findActorIncludingSyncing(address);
+        if(actor == null)
+            throw new IllegalArgumentException("You are not following an actor with the address '"+address+"'");
+        actor.setRetentionPolicy(retentionPolicy);
+        journal.append("set_retention_policy", new JSONObject().put("address", address).put("retention_policy", retentionPolicy.toJSON()));
     }
 
     String sendTransfer(String seed, int index, String receiverAddress, String remainderAddress, BigInteger value, boolean checkBalances, Collection<String> tips) {
@@ -186,16 +390,32 @@ public class ECModule extends IxiModule {
     }
 
     BigInteger getBalanceOfAddress(String address) {
-        BigInteger sum = initialBalances.getOrDefault(address, BigInteger.ZERO);
-        Set<Transaction> transactionsOnAddress = ixi.findTransactionsByAddress(address);
-        for(Transaction transaction : transactionsOnAddress) {
-            if(!transaction.value.equals(BigInteger.ZERO)) {
-                double confidence = cluster.determineApprovalConfidence(transaction.hash);
-                if(confidence > CONFIRMATION_CONFIDENCE)
-                    sum = sum.add(transaction.value);
-            }
+        return getBalancesOfAddresses(Collections.singleton(address)).get(address);
+    }
+
+    /**
+     * Reads the balances of multiple addresses from the {@link ConfirmedBalanceLedger}. The first query of an address
+     * tracks all transactions on that address which the {@link ConfidenceMonitor} has not seen via gossip.
+     * */
+    Map<String, BigInteger> getBalancesOfAddresses(Collection<String> addresses) {
+        Map<String, BigInteger> balances = new HashMap<>();
+        for(String address : addresses) {
+            confidenceMonitor.trackAddress(address);
+            balances.put(address, initialBalances.getOrDefault(address, BigInteger.ZERO).add(ledger.getConfirmedBalance(address)));
         }
-        return sum;
+        return balances;
+    }
+
+    void setFinalityStabilityWindow(long stabilityWindow) {
+        finalityTracker.setStabilityWindow(stabilityWindow);
+    }
+
+    void setTrackingTimeToLive(long timeToLive) {
+        confidenceMonitor.setTimeToLive(timeToLive);
+    }
+
+    void setTickInterval(long interval) {
+        tickScheduler.setInterval(interval);
     }
 
     Bundle getBundle(String bundleHead) {
@@ -214,11 +434,21 @@ public class ECModule extends IxiModule {
     }
 
     private TrustedEconomicActor findTrustedActor(String address) {
-        for(TrustedEconomicActor actor : cluster.getActors()) {
-            if(actor.getAddress().equals(address))
-                return actor;
-        }
-        return null;
+        return cluster.findActor(address);
+    }
+
+    private static List<String> toStringList(JSONArray array) {
+        List<String> list = new LinkedList<>();
+        for(int i = 0; array != null && i < array.length(); i++)
+            list.add(array.getString(i));
+        return list;
+    }
+
+    private static double[] toDoubleArray(JSONArray array) {
+        double[] doubles = new double[array == null ? 0 : array.length()];
+        for(int i = 0; i < doubles.length; i++)
+            doubles[i] = array.getDouble(i);
+        return doubles;
     }
 
     static List<String> deriveAddressesFromSeed(String seed, int amount) {
@@ -285,19 +515,23 @@ public class ECModule extends IxiModule {
         return bundleHead;
     }
 
-    public void changeInitialBalance(String address, BigInteger toAdd) {
-        initialBalances.put(address, initialBalances.getOrDefault(address, BigInteger.ZERO).add(toAdd));
+    public synchronized void changeInitialBalance(String address, BigInteger toAdd) {
+        BigInteger balance = initialBalances.getOrDefault(address, BigInteger.ZERO).add(toAdd);
+        initialBalances.put(address, balance);
         for(AutonomousEconomicActor actor : autonomousActors) {
             actor.changeInitialBalance(address, toAdd);
         }
+        journal.append("set_balance", new JSONObject().put("address", address).put("balance", balance.toString()));
     }
 
     public void watchTransfer(String bundleHead) {
         transfers.add(bundleHead);
+        journal.append("watch_transfer", new JSONObject().put("transfer", bundleHead));
     }
 
     public void unwatchTransfer(String bundleHead) {
         transfers.remove(bundleHead);
+        journal.append("unwatch_transfer", new JSONObject().put("transfer", bundleHead));
     }
 
     /****** GETTERS *****/
@@ -306,6 +540,61 @@ public class ECModule extends IxiModule {
         return ixi;
     }
 
+    EconomicCluster getCluster() {
+        return cluster;
+    }
+
+    FinalityTracker getFinalityTracker() {
+        return finalityTracker;
+    }
+
+    ConfidenceMonitor getConfidenceMonitor() {
+        return confidenceMonitor;
+    }
+
+    ConfidenceIndex getConfidenceIndex() {
+        return confidenceIndex;
+    }
+
+    ConfidenceRequestProcessor getConfidenceRequestProcessor() {
+        return confidenceRequestProcessor;
+    }
+
+    ValidationCache getValidationCache() {
+        return validationCache;
+    }
+
+    /**
+     * Called by the {@link Journal} once enough entries accumulated. Must not block.
+     * */
+    void requestCompaction() {
+        persister.markDirty();
+    }
+
+    WriteBehindPersister getPersister() {
+        return persister;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    Journal getJournal() {
+        return journal;
+    }
+
+    Map<String, BigInteger> getInitialBalances() {
+        return new HashMap<>(initialBalances);
+    }
+
+    ActorTickScheduler getTickScheduler() {
+        return tickScheduler;
+    }
+
+    ConfidenceSubscriptions getSubscriptions() {
+        return subscriptions;
+    }
+
     List<TrustedEconomicActor> getTrustedActors() {
         return cluster.getActors();
     }
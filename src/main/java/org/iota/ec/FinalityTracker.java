@@ -0,0 +1,75 @@
+package org.iota.ec;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Freezes transactions whose confidence has stayed above a threshold for a stability window. Finalized transactions are
+ * considered confirmed for good and no longer have to be evaluated by the cluster.
+ * */
+class FinalityTracker {
+
+    private final double threshold;
+    private volatile long stabilityWindow;
+    private final Map<String, Long> aboveThresholdSince = new ConcurrentHashMap<>();
+    private final Set<String> finalized = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param threshold Confidence a transaction must exceed to become final.
+     * @param stabilityWindow Milliseconds the confidence must stay above the threshold.
+     * */
+    FinalityTracker(double threshold, long stabilityWindow) {
+        this.threshold = threshold;
+        setStabilityWindow(stabilityWindow);
+    }
+
+    boolean isFinalized(String hash) {
+        return finalized.contains(hash);
+    }
+
+    /**
+     * Must be called whenever the confidence of a transaction which is not finalized yet has been determined.
+     * @return Whether the transaction is finalized now.
+     * */
+    boolean observe(String hash, double confidence) {
+        if(finalized.contains(hash))
+            return true;
+        if(confidence <= threshold) {
+            aboveThresholdSince.remove(hash);
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long since = aboveThresholdSince.computeIfAbsent(hash, h -> now);
+        if(now - since < stabilityWindow)
+            return false;
+        finalized.add(hash);
+        aboveThresholdSince.remove(hash);
+        return true;
+    }
+
+    /**
+     * @return Whether the transaction is above the threshold, but has not been for long enough to be finalized.
+     * */
+    boolean isPending(String hash) {
+        return aboveThresholdSince.containsKey(hash);
+    }
+
+    void setStabilityWindow(long stabilityWindow) {
+        if(stabilityWindow < 0)
+            throw new IllegalArgumentException("'stabilityWindow' must not be negative.");
+        this.stabilityWindow = stabilityWindow;
+    }
+
+    long getStabilityWindow() {
+        return stabilityWindow;
+    }
+
+    int amountFinalized() {
+        return finalized.size();
+    }
+
+    int amountPending() {
+        return aboveThresholdSince.size();
+    }
+}
@@ -0,0 +1,148 @@
+package org.iota.ec;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Append-only log of the mutations of the module state since the last snapshot, one JSON object per line. Entries
+ * describe the resulting state (e.g. the new balance instead of the change) so that replaying an entry whose effect is
+ * already contained in the snapshot does no harm. Once {@link #DEFAULT_COMPACTION_THRESHOLD} entries accumulated, a
+ * compaction into a new snapshot is requested. During compaction the journal is rotated, so that appending continues
+ * while the snapshot is written. A rotated journal is only discarded once the snapshot has been stored.
+ * */
+class Journal {
+
+    static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    private final Path path, rotated;
+    private final int compactionThreshold;
+    private final Runnable requestCompaction;
+    private BufferedWriter writer;
+    private int entries;
+
+    /**
+     * @param requestCompaction Called (with the journal locked) whenever the threshold is reached. Must not block.
+     * */
+    Journal(Path path, int compactionThreshold, Runnable requestCompaction) {
+        if(compactionThreshold < 1)
+            throw new IllegalArgumentException("'compactionThreshold' must be positive.");
+        this.path = path;
+        this.rotated = Paths.get(path + ".rotated");
+        this.compactionThreshold = compactionThreshold;
+        this.requestCompaction = requestCompaction;
+    }
+
+    /**
+     * @return All entries of the rotated and the current journal, in order. A malformed (e.g. partially written) last
+     *         line is skipped.
+     * */
+    synchronized List<JSONObject> readAll() throws IOException {
+        List<JSONObject> all = new LinkedList<>();
+        for(Path file : new Path[] {rotated, path}) {
+            if(!Files.exists(file))
+                continue;
+            for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                try {
+                    if(line.length() > 0)
+                        all.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    // truncated by a crash
+                }
+            }
+        }
+        entries = all.size();
+        return all;
+    }
+
+    /**
+     * Starts recording. Before, {@link #append(String, JSONObject)} does nothing, which lets the state be restored without
+     * journaling the restoration itself.
+     * */
+    synchronized void open() throws IOException {
+        if(writer != null)
+            return;
+        boolean truncated = Files.exists(path) && Files.size(path) > 0 && !endsWithNewLine(path);
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if(truncated) {
+            // terminate the partial line so that it does not swallow the next entry
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    private static boolean endsWithNewLine(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * @param operation Type of the mutation.
+     * @param entry Resulting state. Modified by adding the operation.
+     * */
+    synchronized void append(String operation, JSONObject entry) {
+        if(writer == null)
+            return;
+        try {
+            writer.write(entry.put("op", operation).toString());
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not append to journal " + path, e);
+        }
+        if(++entries % compactionThreshold == 0)
+            requestCompaction.run();
+    }
+
+    /**
+     * Moves all entries into the rotated journal and continues with an empty one. Call before taking a snapshot.
+     * */
+    synchronized void rotate() throws IOException {
+        boolean wasOpen = writer != null;
+        close();
+        if(Files.exists(path)) {
+            if(Files.exists(rotated)) {
+                // previous compaction failed, its entries are still required
+                Files.write(rotated, Files.readAllBytes(path), StandardOpenOption.APPEND);
+                Files.delete(path);
+            } else {
+                Files.move(path, rotated, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        entries = 0;
+        if(wasOpen)
+            open();
+    }
+
+    /**
+     * Call once a snapshot taken after {@link #rotate()} has been stored.
+     * */
+    synchronized void discardRotated() throws IOException {
+        Files.deleteIfExists(rotated);
+    }
+
+    synchronized void close() throws IOException {
+        if(writer != null)
+            writer.close();
+        writer = null;
+    }
+
+    synchronized int size() {
+        return entries;
+    }
+}
@@ -1,56 +1,167 @@
 package org.iota.ec;
 
 import org.iota.ec.model.AutonomousEconomicActor;
+import org.iota.ec.model.RetentionPolicy;
 import org.iota.ec.model.TrustedEconomicActor;
-import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
+import org.iota.ec.util.IndexableMerkleTree;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class Persistence {
 
-    private static final Path persistence = Paths.get("persistence.json");
-
     private final ECModule module;
+    private final Path path, temporary;
 
     private Persistence(ECModule module) {
         this.module = module;
+        this.path = module.getDirectory().resolve("persistence.json");
+        this.temporary = module.getDirectory().resolve("persistence.json.tmp");
     }
 
-    public static void store(ECModule module) {
+    /**
+     * Compacts the journal into a new snapshot. The snapshot is replaced atomically, a crash during the write leaves the
+     * previous snapshot and the journal intact.
+     * */
+    public static synchronized void store(ECModule module) {
+        Persistence persistence = new Persistence(module);
         try {
-            new Persistence(module).store();
+            persistence.store();
         } catch (IOException e) {
-            throw new RuntimeException("Could not store state of EC.ixi in " + persistence, e);
+            throw new RuntimeException("Could not store state of EC.ixi in " + persistence.path, e);
         }
     }
 
     public static void load(ECModule module) {
+        Persistence persistence = new Persistence(module);
         try {
-            if(Files.exists(persistence))
-                new Persistence(module).load();
+            persistence.load();
         } catch (IOException e) {
-            throw new RuntimeException("Could not initialize EC.ixi from " + persistence, e);
+            throw new RuntimeException("Could not initialize EC.ixi from " + persistence.path, e);
         }
     }
 
     private void store() throws IOException {
+        Journal journal = module.getJournal();
+        // entries appended from now on may already be contained in the snapshot, replaying them is harmless
+        journal.rotate();
         JSONObject persistenceJSON = new JSONObject();
+        persistenceJSON.put("balances", serializeBalances());
         persistenceJSON.put("trusted", serializeTrustedActors());
         persistenceJSON.put("autonomous", serializeAutonomousActors());
         persistenceJSON.put("transfers", serializeTransfers());
-        write(persistence, persistenceJSON.toString());
+        write(temporary, persistenceJSON.toString());
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.discardRotated();
+        module.getCluster().storeSnapshots();
     }
 
     public void load() throws IOException {
-        JSONObject persistenceJSON = new JSONObject(read(persistence));
-        deserializeTrustedActors(persistenceJSON.getJSONArray("trusted"));
-        deserializeTransfers(persistenceJSON.getJSONArray("transfers"));
-        deserializeAutonomousActors(persistenceJSON.getJSONArray("autonomous"));
+        if(Files.exists(path)) {
+            JSONObject persistenceJSON = new JSONObject(read(path));
+            // before the actors, which copy the balances when created
+            if(persistenceJSON.has("balances"))
+                deserializeBalances(persistenceJSON.getJSONObject("balances"));
+            deserializeTrustedActors(persistenceJSON.getJSONArray("trusted"));
+            deserializeTransfers(persistenceJSON.getJSONArray("transfers"));
+            deserializeAutonomousActors(persistenceJSON.getJSONArray("autonomous"));
+        }
+        Journal journal = module.getJournal();
+        // trust changes are collected and imported at once, so that new actors are synced in parallel
+        Map<String, Double> trustByAddress = new LinkedHashMap<>();
+        Map<String, RetentionPolicy> retentionPolicyByAddress = new HashMap<>();
+        for(JSONObject entry : journal.readAll())
+            replay(entry, trustByAddress, retentionPolicyByAddress);
+        if(!trustByAddress.isEmpty())
+            module.importTrust(trustByAddress, retentionPolicyByAddress);
+        journal.open();
+    }
+
+    /**
+     * @param trustByAddress Collects the trust changes, of which only the last one per address matters.
+     * @param retentionPolicyByAddress Collects the retention policies of actors whose trust changes.
+     * */
+    private void replay(JSONObject entry, Map<String, Double> trustByAddress, Map<String, RetentionPolicy> retentionPolicyByAddress) {
+        String address = entry.optString("address", null);
+        switch (entry.getString("op")) {
+            case "set_trust": {
+                double trust = entry.getDouble("trust");
+                trustByAddress.put(address, trust);
+                if(trust == 0)
+                    retentionPolicyByAddress.remove(address);
+                break;
+            }
+            case "set_retention_policy": {
+                RetentionPolicy retentionPolicy = RetentionPolicy.fromJSON(entry.getJSONObject("retention_policy"));
+                if(trustByAddress.getOrDefault(address, 0.0) > 0)
+                    retentionPolicyByAddress.put(address, retentionPolicy);
+                else if(!trustByAddress.containsKey(address) && isTrusted(address))
+                    module.setRetentionPolicy(address, retentionPolicy);
+                break;
+            }
+            case "create_actor":
+                if(findAutonomousActor(address) == null)
+                    module.createNewActor(IndexableMerkleTree.fromJSON(entry.getJSONObject("merkle_tree")), address);
+                break;
+            case "delete_actor":
+                if(findAutonomousActor(address) != null)
+                    module.deleteAutonomousActor(address);
+                break;
+            case "merkle_index": {
+                AutonomousEconomicActor actor = findAutonomousActor(address);
+                if(actor != null)
+                    actor.getMerkleTree().advanceIndex(entry.getInt("index"));
+                break;
+            }
+            case "set_balance": {
+                BigInteger balance = new BigInteger(entry.getString("balance"));
+                module.changeInitialBalance(address, balance.subtract(module.getInitialBalances().getOrDefault(address, BigInteger.ZERO)));
+                break;
+            }
+            case "watch_transfer":
+                if(!module.getTransfers().contains(entry.getString("transfer")))
+                    module.watchTransfer(entry.getString("transfer"));
+                break;
+            case "unwatch_transfer":
+                module.unwatchTransfer(entry.getString("transfer"));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown journal operation '" + entry.getString("op") + "'");
+        }
+    }
+
+    private AutonomousEconomicActor findAutonomousActor(String address) {
+        for(AutonomousEconomicActor actor : module.getAutonomousActors())
+            if(actor.getAddress().equals(address))
+                return actor;
+        return null;
+    }
+
+    private boolean isTrusted(String address) {
+        for(TrustedEconomicActor actor : module.getTrustedActors())
+            if(actor.getAddress().equals(address))
+                return true;
+        return false;
+    }
+
+    private JSONObject serializeBalances() {
+        JSONObject balances = new JSONObject();
+        for(Map.Entry<String, BigInteger> balance : module.getInitialBalances().entrySet())
+            balances.put(balance.getKey(), balance.getValue().toString());
+        return balances;
+    }
+
+    private void deserializeBalances(JSONObject serialized) {
+        for(String address : serialized.keySet())
+            module.changeInitialBalance(address, new BigInteger(serialized.getString(address)));
     }
 
     private JSONArray serializeTrustedActors() {
@@ -59,24 +170,31 @@ public class Persistence {
             JSONObject entry = new JSONObject();
             entry.put("address", actor.getAddress());
             entry.put("trust", actor.getTrust());
+            entry.put("retention_policy", actor.getRetentionPolicy().toJSON());
             array.put(entry);
         }
         return array;
     }
 
     private void deserializeTrustedActors(JSONArray serialized) {
+        Map<String, Double> trustByAddress = new LinkedHashMap<>();
+        Map<String, RetentionPolicy> retentionPolicyByAddress = new HashMap<>();
         for(int i = 0; i < serialized.length(); i++) {
             JSONObject entry = serialized.getJSONObject(i);
             String address = entry.getString("address");
-            double trust = entry.getDouble("trust");
-            module.setTrust(address, trust);
+            trustByAddress.put(address, entry.getDouble("trust"));
+            if(entry.has("retention_policy"))
+                retentionPolicyByAddress.put(address, RetentionPolicy.fromJSON(entry.getJSONObject("retention_policy")));
         }
+        // syncs all actors in parallel
+        module.importTrust(trustByAddress, retentionPolicyByAddress);
     }
 
     private JSONArray serializeAutonomousActors() {
         JSONArray array = new JSONArray();
         for(AutonomousEconomicActor actor : module.getAutonomousActors()) {
             JSONObject entry = new JSONObject();
+            entry.put("address", actor.getAddress());
             entry.put("merkle_tree", actor.getMerkleTree().toJSON());
             array.put(entry);
         }
@@ -86,8 +204,8 @@ public class Persistence {
     private void deserializeAutonomousActors(JSONArray serialized) {
         for(int i = 0; i < serialized.length(); i++) {
             JSONObject entry = serialized.getJSONObject(i);
-            SerializableAutoIndexableMerkleTree merkleTree = SerializableAutoIndexableMerkleTree.fromJSON(entry.getJSONObject("merkle_tree"));
-            module.createNewActor(merkleTree);
+            IndexableMerkleTree merkleTree = IndexableMerkleTree.fromJSON(entry.getJSONObject("merkle_tree"));
+            module.createNewActor(merkleTree, entry.optString("address", null));
         }
     }
 
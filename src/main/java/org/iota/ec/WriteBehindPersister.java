@@ -0,0 +1,126 @@
+package org.iota.ec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores the module state on a background thread instead of on the thread causing the mutation, which only marks the
+ * state as dirty. The first mark schedules a write after a delay, all further mutations within that delay are
+ * coalesced into the same write. If a write fails, the state stays dirty and is written with the next mutation.
+ * */
+class WriteBehindPersister {
+
+    static final long DEFAULT_DELAY = 1000;
+
+    private static final Logger logger = LogManager.getLogger("EC.ixi");
+
+    private final Runnable store;
+    private final long delay;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EC/persister");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> scheduled;
+
+    private final LongAdder mutations = new LongAdder();
+    private volatile long writes, failures;
+    private volatile long lastDuration, maxDuration;
+
+    /**
+     * @param store Writes the whole state synchronously.
+     * @param delay Milliseconds between the first mutation and the write.
+     * */
+    WriteBehindPersister(Runnable store, long delay) {
+        if(delay < 0)
+            throw new IllegalArgumentException("'delay' must not be negative.");
+        this.store = store;
+        this.delay = delay;
+    }
+
+    /**
+     * Schedules a write unless one is already scheduled. Returns immediately.
+     * */
+    void markDirty() {
+        mutations.increment();
+        dirty.set(true);
+        synchronized (this) {
+            if(scheduled == null && !executor.isShutdown())
+                scheduled = executor.schedule(this::writeIfDirty, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops writing in the background and stores the state one last time on the calling thread. The final write happens
+     * even if nothing was marked dirty because some state (e.g. Merkle tree indices) changes without any request.
+     * */
+    void terminate() {
+        synchronized (this) {
+            // covered by the final write
+            if(scheduled != null)
+                scheduled.cancel(false);
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(delay + 10000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dirty.set(false);
+        write();
+    }
+
+    private void writeIfDirty() {
+        synchronized (this) {
+            scheduled = null;
+        }
+        // reset before writing, so that mutations during the write cause another one
+        if(dirty.getAndSet(false))
+            write();
+    }
+
+    private void write() {
+        long startedAt = System.currentTimeMillis();
+        try {
+            store.run();
+            writes++;
+        } catch (RuntimeException e) {
+            failures++;
+            dirty.set(true);
+            logger.error("failed storing state", e);
+        }
+        lastDuration = System.currentTimeMillis() - startedAt;
+        maxDuration = Math.max(maxDuration, lastDuration);
+    }
+
+    /****** METRICS ******/
+
+    boolean isDirty() {
+        return dirty.get();
+    }
+
+    long getMutations() {
+        return mutations.sum();
+    }
+
+    long getWrites() {
+        return writes;
+    }
+
+    long getFailures() {
+        return failures;
+    }
+
+    long getLastDuration() {
+        return lastDuration;
+    }
+
+    long getMaxDuration() {
+        return maxDuration;
+    }
+}
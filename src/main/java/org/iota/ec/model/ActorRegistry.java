@@ -0,0 +1,83 @@
+package org.iota.ec.model;
+
+import java.util.*;
+
+/**
+ * Copy-on-write registry of the {@link TrustedEconomicActor}s in an {@link EconomicCluster}. Readers never lock, they
+ * simply grab the current {@link Snapshot} which is immutable and therefore consistent. Writers are serialized and
+ * replace the snapshot. Since actors are added or removed rarely compared to how often they are read, copying on
+ * every write is cheap.
+ * */
+class ActorRegistry {
+
+    private volatile Snapshot snapshot = new Snapshot(new TrustedEconomicActor[0]);
+
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return {@code false} if an actor with the same address has already been added.
+     * */
+    synchronized boolean add(TrustedEconomicActor actor) {
+        if(snapshot.byAddress.containsKey(actor.getAddress()))
+            return false;
+        TrustedEconomicActor[] actors = Arrays.copyOf(snapshot.actors, snapshot.actors.length + 1);
+        actors[actors.length-1] = actor;
+        snapshot = new Snapshot(actors);
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the actor was not part of this registry.
+     * */
+    synchronized boolean remove(TrustedEconomicActor actor) {
+        if(snapshot.byAddress.get(actor.getAddress()) != actor)
+            return false;
+        List<TrustedEconomicActor> actors = new ArrayList<>(snapshot.list);
+        actors.remove(actor);
+        snapshot = new Snapshot(actors.toArray(new TrustedEconomicActor[0]));
+        return true;
+    }
+
+    synchronized void setTrust(TrustedEconomicActor actor, double trust) {
+        actor.setTrust(trust);
+        snapshot = new Snapshot(snapshot.actors);
+    }
+
+    /**
+     * Immutable structure-of-arrays view of the actors and their trust at some point in time.
+     * */
+    static class Snapshot {
+        final TrustedEconomicActor[] actors;
+        final double[] trusts;
+        final double totalTrust;
+        final Map<String, TrustedEconomicActor> byAddress;
+        final List<TrustedEconomicActor> list;
+        private volatile AliasTable aliasTable;
+
+        private Snapshot(TrustedEconomicActor[] actors) {
+            this.actors = actors;
+            this.trusts = new double[actors.length];
+            Map<String, TrustedEconomicActor> byAddress = new HashMap<>();
+            double totalTrust = 0;
+            for(int i = 0; i < actors.length; i++) {
+                trusts[i] = actors[i].getTrust();
+                totalTrust += trusts[i];
+                byAddress.put(actors[i].getAddress(), actors[i]);
+            }
+            this.totalTrust = totalTrust;
+            this.byAddress = Collections.unmodifiableMap(byAddress);
+            this.list = Collections.unmodifiableList(Arrays.asList(actors));
+        }
+
+        /**
+         * @return Table to sample actors in proportion to their trust. Built on first use.
+         * */
+        AliasTable aliasTable() {
+            if(aliasTable == null)
+                aliasTable = new AliasTable(trusts);
+            return aliasTable;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.iota.ec.model;
+
+import org.iota.ict.ixi.Ixi;
+import org.iota.ict.model.transaction.Transaction;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary snapshots of the state a {@link TrustedEconomicActor} has built from its markers: its SubTangles (index,
+ * confidence, referenced and missing transactions), the verified subtree certificates and the heads of the markers
+ * which have been applied. Restoring a snapshot replaces walking the past cone of every marker, so that syncing an actor
+ * only has to verify the markers issued after the snapshot was taken. One file per actor, memory-mapped when loaded.
+ * */
+public class ActorSnapshotStore {
+
+    private static final int MAGIC = 0x45435353;
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 81;
+
+    private final Path directory;
+
+    public ActorSnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Must be called by the writer of the {@link MarkerPipeline}, so that the state does not change while it is written.
+     * The snapshot is replaced atomically.
+     * */
+    void store(TrustedEconomicActor actor) throws IOException {
+        Files.createDirectories(directory);
+        Path file = fileOf(actor.getAddress());
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeHash(out, actor.getAddress());
+            writeHashes(out, actor.processedMarkerHeads);
+            // verifiers keep adding certificates, copy first so that the size matches the amount written
+            Map<String, Integer> certifiedSubTrees = new HashMap<>(actor.certifiedSubTrees);
+            out.writeInt(certifiedSubTrees.size());
+            for(Map.Entry<String, Integer> certified : certifiedSubTrees.entrySet()) {
+                writeHash(out, certified.getKey());
+                out.writeInt(certified.getValue());
+            }
+            List<TrustedEconomicActor.SubTangle> subTangles = actor.subTanglesOrderedByDescendingConfidence;
+            out.writeInt(subTangles.size());
+            for(TrustedEconomicActor.SubTangle subTangle : subTangles) {
+                out.writeInt(subTangle.index);
+                out.writeDouble(subTangle.confidence);
+                out.writeLong(subTangle.supersededSince);
+                writeHash(out, subTangle.referencedTransaction1);
+                writeHash(out, subTangle.referencedTransaction2);
+                writeHashes(out, subTangle.referenced);
+                writeHashes(out, subTangle.missing);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot of an actor without modifying the actor. Can be called from any thread.
+     * @return The restored state or {@code null} if there is no valid snapshot.
+     * */
+    Snapshot load(TrustedEconomicActor actor) {
+        Path file = fileOf(actor.getAddress());
+        if(!Files.exists(file))
+            return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !readHash(buffer).equals(actor.getAddress()))
+                return null;
+            Snapshot snapshot = new Snapshot();
+            readHashes(buffer, snapshot.processedMarkerHeads);
+            for(int i = buffer.getInt(); i > 0; i--)
+                snapshot.certifiedSubTrees.put(readHash(buffer), buffer.getInt());
+            for(int i = buffer.getInt(); i > 0; i--) {
+                int index = buffer.getInt();
+                double confidence = buffer.getDouble();
+                long supersededSince = buffer.getLong();
+                TrustedEconomicActor.SubTangle subTangle = actor.new SubTangle(readHash(buffer), readHash(buffer), index, confidence, supersededSince);
+                readHashes(buffer, subTangle.referenced);
+                readHashes(buffer, subTangle.missing);
+                snapshot.subTangles.add(subTangle);
+            }
+            return snapshot;
+        } catch (IOException | BufferUnderflowException e) {
+            // incomplete snapshot, fall back to a full sync
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    void delete(String address) {
+        try {
+            Files.deleteIfExists(fileOf(address));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Path fileOf(String address) {
+        return directory.resolve(address + ".bin");
+    }
+
+    private static void writeHashes(DataOutputStream out, Collection<String> hashes) throws IOException {
+        String[] array = hashes.toArray(new String[0]);
+        out.writeInt(array.length);
+        for(String hash : array)
+            writeHash(out, hash);
+    }
+
+    private static void writeHash(DataOutputStream out, String hash) throws IOException {
+        out.write(hash.getBytes(StandardCharsets.US_ASCII), 0, HASH_LENGTH);
+    }
+
+    private static void readHashes(MappedByteBuffer buffer, Collection<String> target) {
+        for(int i = buffer.getInt(); i > 0; i--)
+            target.add(readHash(buffer));
+    }
+
+    private static String readHash(MappedByteBuffer buffer) {
+        byte[] bytes = new byte[HASH_LENGTH];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * State read from a snapshot, applied with {@link #apply(TrustedEconomicActor, Ixi)}.
+     * */
+    static class Snapshot {
+        private final Set<String> processedMarkerHeads = new HashSet<>();
+        private final Map<String, Integer> certifiedSubTrees = new HashMap<>();
+        private final List<TrustedEconomicActor.SubTangle> subTangles = new LinkedList<>();
+
+        /**
+         * Must be called by the writer of the {@link MarkerPipeline}. Transactions which were missing when the snapshot
+         * was taken but are known by now are resolved.
+         * */
+        void apply(TrustedEconomicActor actor, Ixi ixi) {
+            actor.processedMarkerHeads.addAll(processedMarkerHeads);
+            actor.certifiedSubTrees.putAll(certifiedSubTrees);
+            for(TrustedEconomicActor.SubTangle subTangle : subTangles) {
+                for(String missing : new ArrayList<>(subTangle.missing)) {
+                    Transaction transaction = ixi.findTransactionByHash(missing);
+                    if(transaction != null)
+                        subTangle.missingTransactionFound(transaction);
+                }
+            }
+            actor.restoreSubTangles(subTangles);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.iota.ec.model;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Samples indices in proportion to their weight in constant time using Vose's alias method. Building the table takes
+ * linear time, so it should be reused for as long as the weights do not change.
+ * */
+class AliasTable {
+
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * @param weights Non-negative weights. At least one of them must be positive.
+     * */
+    AliasTable(double[] weights) {
+        int n = weights.length;
+        probability = new double[n];
+        alias = new int[n];
+
+        double sum = 0;
+        for(double weight : weights)
+            sum += weight;
+        if(!(sum > 0))
+            throw new IllegalArgumentException("at least one weight must be positive");
+
+        double[] scaled = new double[n];
+        LinkedList<Integer> small = new LinkedList<>(), large = new LinkedList<>();
+        for(int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            (scaled[i] < 1 ? small : large).add(i);
+        }
+
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int less = small.poll(), more = large.poll();
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            (scaled[more] < 1 ? small : large).add(more);
+        }
+
+        // remaining entries are 1 except for rounding errors
+        for(int i : large)
+            probability[i] = 1;
+        for(int i : small)
+            probability[i] = 1;
+    }
+
+    int sample(Random random) {
+        int column = random.nextInt(probability.length);
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+
+    int size() {
+        return probability.length;
+    }
+}
@@ -1,6 +1,6 @@
 package org.iota.ec.model;
 
-import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
+import org.iota.ec.util.IndexableMerkleTree;
 import org.iota.ict.ixi.Ixi;
 import org.iota.ict.model.bundle.Bundle;
 import org.iota.ict.model.transaction.Transaction;
@@ -14,6 +14,7 @@ import java.util.*;
 public class AutonomousEconomicActor extends ControlledEconomicActor {
 
     private static final NumberFormat format = new DecimalFormat("#0.000");
+    public static final int DEFAULT_MAX_CANDIDATES = 50;
 
     private final Ixi ixi;
     private final LedgerValidator ledgerValidator;
@@ -22,13 +23,23 @@ public class AutonomousEconomicActor extends ControlledEconomicActor {
     private final EconomicCluster economicCluster;
     private final Set<String> validTangles = new HashSet<>();
     private final Set<String> invalidTangles = new HashSet<>();
+    private final ConflictGraph conflictGraph = new ConflictGraph();
+    private final MarkerBatcher markerBatcher = new MarkerBatcher();
     private double aggressivity = 1.1, conservativity = 20.0;
+    private volatile int maxCandidates = DEFAULT_MAX_CANDIDATES;
 
-    public AutonomousEconomicActor(Ixi ixi, EconomicCluster economicCluster, Map<String, BigInteger> initialBalances, SerializableAutoIndexableMerkleTree merkleTree) {
+    public AutonomousEconomicActor(Ixi ixi, EconomicCluster economicCluster, Map<String, BigInteger> initialBalances, IndexableMerkleTree merkleTree) {
+        this(ixi, economicCluster, initialBalances, merkleTree, new ValidationCache());
+    }
+
+    /**
+     * @param validationCache Validation results shared with other actors, see {@link ValidationCache}.
+     * */
+    public AutonomousEconomicActor(Ixi ixi, EconomicCluster economicCluster, Map<String, BigInteger> initialBalances, IndexableMerkleTree merkleTree, ValidationCache validationCache) {
         super(merkleTree);
         this.ixi = ixi;
         this.economicCluster = economicCluster;
-        this.ledgerValidator = new LedgerValidator(ixi, initialBalances);
+        this.ledgerValidator = new LedgerValidator(ixi, initialBalances, validationCache);
     }
 
     public void setAggressivity(double aggressivity) {
@@ -39,33 +50,128 @@ public class AutonomousEconomicActor extends ControlledEconomicActor {
         this.conservativity = conservativity;
     }
 
-    public void changeInitialBalance(String address, BigInteger toAdd) {
+    /**
+     * Limits how many markers are issued, see {@link MarkerBatcher}.
+     * @param markersPerSecond Average rate at which markers may be issued.
+     * @param burst Maximum amount of markers issued at once after a quiet period.
+     * @param leafReserve Amount of Merkle leaves which must remain unused.
+     * */
+    public synchronized void setMarkerBudget(double markersPerSecond, int burst, int leafReserve) {
+        markerBatcher.setBudget(markersPerSecond, burst, leafReserve);
+    }
+
+    /**
+     * @param maxCandidates Amount of most confident tangles considered per tick, besides runners-up conflicting with them
+     *                      and new tangles.
+     * */
+    public void setMaxCandidates(int maxCandidates) {
+        if(maxCandidates < 1)
+            throw new IllegalArgumentException("'maxCandidates' must be positive.");
+        this.maxCandidates = maxCandidates;
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    /**
+     * @return Amount of confidence updates waiting for marker budget.
+     * */
+    public synchronized int amountOfPendingMarkers() {
+        return markerBatcher.amountPending();
+    }
+
+    public synchronized void changeInitialBalance(String address, BigInteger toAdd) {
         ledgerValidator.changeInitialBalance(address, toAdd);
+        conflictGraph.clear();
     }
 
     public void tick() {
         tick(Collections.emptySet());
     }
+
     public void tick(Collection<String> newTangles) {
-        // TODO do not consider all which is too computationally expensive
-        List<String> tangles = new LinkedList<>(economicCluster.getAllTangles());
-        tangles.addAll(newTangles);
+        tick(economicCluster.createView(newTangles), newTangles);
+    }
+
+    /**
+     * Called both by the scheduler and manually through the API, hence synchronized. Reads the cluster only through
+     * the passed view, which can be shared with other actors ticking in parallel.
+     * @param view View on the cluster.
+     * @param newTangles Tangles to consider in any case. Should be included in the view.
+     * */
+    public synchronized void tick(EconomicCluster.View view, Collection<String> newTangles) {
+        List<String> tangles = selectCandidates(view, newTangles);
         removeInvalidTangles(tangles);
         Map<String, Double> newConfidenceByTangle = new HashMap<>();
         if(tangles.size() == 0)
             return;
-        ConfidenceCalculator confidenceCalculator = createConfidenceCalculator(tangles);
+        ConfidenceCalculator confidenceCalculator = createConfidenceCalculator(tangles, view.getApprovals());
         for(String tangle : tangles) {
             double calculatedConfidence = confidenceCalculator.confidenceOf(tangle);
             newConfidenceByTangle.put(tangle, calculatedConfidence);
         }
 
         mostConfident = null;
+        markerBatcher.retainOnly(newConfidenceByTangle.keySet());
         for(Map.Entry<String, Double> entry : newConfidenceByTangle.entrySet()) {
-            adjustConfidence(entry.getKey(), entry.getValue());
+            Double confidenceToPublish = adjustConfidence(entry.getKey(), entry.getValue());
+            if(confidenceToPublish != null) {
+                double publishedConfidence = publishedConfidenceByMarkedTangle.getOrDefault(entry.getKey(), 0.0);
+                markerBatcher.offer(entry.getKey(), confidenceToPublish, Math.abs(confidenceToPublish - publishedConfidence));
+            }
             if(mostConfident == null || entry.getValue() > mostConfident.getValue())
                 mostConfident = entry;
         }
+        for(Bundle marker : buildMarkers(markerBatcher.drain(merkleTree.getLeavesLeft())))
+            for (Transaction t : marker.getTransactions())
+                ixi.submit(t);
+    }
+
+    /**
+     * Bounds the work of a tick by the amount of candidates instead of the amount of tangles marked in the cluster.
+     * Selects the valid tangles with the highest cluster confidence and turnout plus those of the next best which
+     * conflict with any of them, so that the {@link ConfidenceCalculator} still sees the competition of the leaders.
+     * Runners-up are only looked for within the next {@code 2 * maxCandidates} valid tangles. The passed new tangles
+     * are always considered.
+     * */
+    protected List<String> selectCandidates(EconomicCluster.View view, Collection<String> newTangles) {
+        Set<String> allTangles = new HashSet<>(view.getTangles());
+        allTangles.addAll(newTangles);
+        int maxCandidates = this.maxCandidates;
+        if(allTangles.size() <= maxCandidates)
+            return new LinkedList<>(allTangles);
+
+        EconomicCluster.Approvals approvals = view.getApprovals();
+        Map<String, Double> scoreByTangle = new HashMap<>();
+        for(String tangle : allTangles)
+            scoreByTangle.put(tangle, guessApprovalConfidence(tangle, approvals, allTangles.size()));
+        List<String> tanglesByDescendingScore = new ArrayList<>(allTangles);
+        tanglesByDescendingScore.sort((a, b) -> Double.compare(scoreByTangle.get(b), scoreByTangle.get(a)));
+
+        List<String> leaders = new LinkedList<>();
+        List<String> runnersUp = new LinkedList<>();
+        for(String tangle : tanglesByDescendingScore) {
+            if(runnersUp.size() >= 2 * maxCandidates)
+                break;
+            if(!isTangleValid(tangle))
+                continue;
+            (leaders.size() < maxCandidates ? leaders : runnersUp).add(tangle);
+        }
+
+        List<String> candidates = new LinkedList<>(leaders);
+        for(String runnerUp : runnersUp) {
+            for(String leader : leaders) {
+                if(!areTanglesCompatible(runnerUp, leader)) {
+                    candidates.add(runnerUp);
+                    break;
+                }
+            }
+        }
+        for(String newTangle : newTangles)
+            if(!candidates.contains(newTangle))
+                candidates.add(newTangle);
+        return candidates;
     }
 
     protected void removeInvalidTangles(List<String> tangles) {
@@ -90,51 +196,47 @@ public class AutonomousEconomicActor extends ControlledEconomicActor {
         return isValid;
     }
 
-    protected ConfidenceCalculator createConfidenceCalculator(List<String> tangles) {
+    protected ConfidenceCalculator createConfidenceCalculator(List<String> tangles, EconomicCluster.Approvals approvals) {
         assert tangles.size() > 0;
         Set<ConfidenceCalculator.Conflict> conflicts = findAllConflicts(tangles);
         double[] initialProbabilities = new double[tangles.size()];
         for(int i = 0; i < tangles.size(); i++) {
             String tangle = tangles.get(i);
-            initialProbabilities[i] = guessApprovalConfidence(tangle, tangles.size());
+            initialProbabilities[i] = guessApprovalConfidence(tangle, approvals, tangles.size());
         }
         return new ConfidenceCalculator(tangles, conflicts, initialProbabilities);
     }
 
-    protected double guessApprovalConfidence(String tangle, int amountOfTangles) {
-        double confidenceRef1 = guessTransactionApprovalConfidence(tangle.substring(0, 81), amountOfTangles);
-        double confidenceRef2 = guessTransactionApprovalConfidence(tangle.substring(81), amountOfTangles);
+    protected double guessApprovalConfidence(String tangle, EconomicCluster.Approvals approvals, int amountOfTangles) {
+        double confidenceRef1 = guessTransactionApprovalConfidence(tangle.substring(0, 81), approvals, amountOfTangles);
+        double confidenceRef2 = guessTransactionApprovalConfidence(tangle.substring(81), approvals, amountOfTangles);
         return (mostConfident != null && mostConfident.getKey().equals(tangle) ? 1+aggressivity : 1) * Math.min(confidenceRef1, confidenceRef2);
     }
 
-    private double guessTransactionApprovalConfidence(String transaction, int amountOfTangles) {
-        double turnout = economicCluster.determineTurnout(transaction);
-        return turnout * economicCluster.determineApprovalConfidence(transaction) + (1-turnout) / amountOfTangles;
+    private static double guessTransactionApprovalConfidence(String transaction, EconomicCluster.Approvals approvals, int amountOfTangles) {
+        double turnout = approvals.getTurnout(transaction);
+        return turnout * approvals.getConfidence(transaction) + (1-turnout) / amountOfTangles;
     }
 
     protected Set<ConfidenceCalculator.Conflict> findAllConflicts(List<String> tangles) {
-        Set<ConfidenceCalculator.Conflict> conflicts = new HashSet<>();
-        for(int i = 0; i < tangles.size(); i++) {
-            String tangleI = tangles.get(i);
-            for(int j = i+1; j < tangles.size(); j++) {
-                String tangleJ = tangles.get(j);
-                if(!ledgerValidator.areTanglesCompatible(tangleI.substring(0, 81), tangleI.substring(81), tangleJ.substring(0, 81), tangleJ.substring(81)))
-                    conflicts.add(new ConfidenceCalculator.Conflict(tangleI, tangleJ));
-            }
-        }
-        return conflicts;
+        return conflictGraph.update(tangles, this::areTanglesCompatible);
+    }
+
+    private boolean areTanglesCompatible(String tangleA, String tangleB) {
+        return ledgerValidator.areTanglesCompatible(tangleA.substring(0, 81), tangleA.substring(81), tangleB.substring(0, 81), tangleB.substring(81));
     }
 
-    protected void adjustConfidence(String tangle, double newConfidence) {
+    /**
+     * @return The confidence to publish in a new marker or {@code null} if no marker is necessary.
+     * */
+    protected Double adjustConfidence(String tangle, double newConfidence) {
         double oldConfidence = publishedConfidenceByMarkedTangle.getOrDefault(tangle, new Double(0));
         boolean shouldIssueNewMarker = !publishedConfidenceByMarkedTangle.containsKey(tangle) || shouldIssueMarkerToUpdateConfidence(oldConfidence, newConfidence);
-        if(shouldIssueNewMarker) {
-            double conservativeConfidence = oldConfidence + (newConfidence - oldConfidence) / conservativity;
-            System.err.println("adjusting confidence for " + tangle.substring(0, 10) + "... towards " + format.format(newConfidence) + ": "+format.format(oldConfidence)+" -> " + format.format(conservativeConfidence));
-            Bundle marker = buildMarker(tangle.substring(0, 81), tangle.substring(81), conservativeConfidence);
-            for (Transaction t : marker.getTransactions())
-                ixi.submit(t);
-        }
+        if(!shouldIssueNewMarker)
+            return null;
+        double conservativeConfidence = oldConfidence + (newConfidence - oldConfidence) / conservativity;
+        System.err.println("adjusting confidence for " + tangle.substring(0, 10) + "... towards " + format.format(newConfidence) + ": "+format.format(oldConfidence)+" -> " + format.format(conservativeConfidence));
+        return conservativeConfidence;
     }
 
     @Override
@@ -143,6 +245,12 @@ public class AutonomousEconomicActor extends ControlledEconomicActor {
         return super.buildMarker(trunk, branch, confidence);
     }
 
+    @Override
+    public List<Bundle> buildMarkers(Map<String, Double> confidenceByTangle) {
+        publishedConfidenceByMarkedTangle.putAll(confidenceByTangle);
+        return super.buildMarkers(confidenceByTangle);
+    }
+
     private static boolean shouldIssueMarkerToUpdateConfidence(double currentConfidence, double newConfidence) {
         String currentEncodedConfidence = encodeConfidence(currentConfidence, Transaction.Field.TAG.tryteLength);
         String newEncodedConfidence = encodeConfidence(newConfidence, Transaction.Field.TAG.tryteLength);
@@ -0,0 +1,74 @@
+package org.iota.ec.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the {@link EconomicCluster.Approval} of transactions. Every entry is tagged with the state version of the
+ * cluster it was calculated in and is only returned as long as the cluster is still in that version. This way nothing
+ * has to be removed explicitly when a marker arrives, the version simply advances.
+ * */
+public class ConfidenceCache {
+
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private final int maxSize;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    ConfidenceCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The cached approval or {@code null} if none was cached in this version.
+     * */
+    EconomicCluster.Approval get(String hash, long version) {
+        Entry entry = entries.get(hash);
+        if(entry != null && entry.version == version) {
+            hits.incrementAndGet();
+            return entry.approval;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param version The version of the cluster <b>before</b> the approval was calculated. If the cluster changed
+     *                meanwhile, the entry will simply never be hit.
+     * */
+    void put(String hash, long version, EconomicCluster.Approval approval) {
+        if(entries.size() >= maxSize)
+            // most entries are usually outdated anyway
+            entries.clear();
+        entries.put(hash, new Entry(version, approval));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long hits = getHits(), total = hits + getMisses();
+        return total == 0 ? 0 : hits / (double)total;
+    }
+
+    private static class Entry {
+        private final long version;
+        private final EconomicCluster.Approval approval;
+
+        private Entry(long version, EconomicCluster.Approval approval) {
+            this.version = version;
+            this.approval = approval;
+        }
+    }
+}
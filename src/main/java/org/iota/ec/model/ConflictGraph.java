@@ -0,0 +1,101 @@
+package org.iota.ec.model;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+/**
+ * Conflict relation among the tangles considered by an {@link AutonomousEconomicActor}, maintained across ticks. Whether
+ * two solid tangles are compatible never changes, so the result of each pair (compatible or conflicting) is cached and
+ * only tested again once it has been evicted. Tangles are often considered again after missing a tick, so pairs are not
+ * evicted together with their tangles but only once the cache is full, least recently used first. Not thread-safe.
+ * */
+class ConflictGraph {
+
+    static final int DEFAULT_CAPACITY = 100000;
+
+    private final int capacity;
+    private final Map<Pair, Boolean> compatibilityByPair = new LinkedHashMap<Pair, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Pair, Boolean> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    ConflictGraph() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Maximum amount of cached pair results. Should exceed the amount of pairs among the tangles
+     *                 considered per tick, otherwise pairs are evicted before they are needed again.
+     * */
+    ConflictGraph(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("'capacity' must be positive.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Determines the conflicts among the currently considered tangles, testing only pairs whose result is not cached.
+     * @param tangles The tangles to consider. Must all be solid.
+     * @param areCompatible Tests whether two tangles are compatible.
+     * @return All conflicts among the considered tangles, each pair only once.
+     * */
+    Set<ConfidenceCalculator.Conflict> update(Collection<String> tangles, BiPredicate<String, String> areCompatible) {
+        List<String> considered = new ArrayList<>(new HashSet<>(tangles));
+        Set<ConfidenceCalculator.Conflict> conflicts = new HashSet<>();
+        for(int i = 0; i < considered.size(); i++) {
+            for(int j = i + 1; j < considered.size(); j++) {
+                Pair pair = new Pair(considered.get(i), considered.get(j));
+                Boolean compatible = compatibilityByPair.get(pair);
+                if(compatible == null) {
+                    compatible = areCompatible.test(pair.tangle1, pair.tangle2);
+                    compatibilityByPair.put(pair, compatible);
+                }
+                if(!compatible)
+                    conflicts.add(new ConfidenceCalculator.Conflict(pair.tangle1, pair.tangle2));
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Forgets all pair results. Required whenever compatibility can change, e.g. when the initial balances change.
+     * */
+    void clear() {
+        compatibilityByPair.clear();
+    }
+
+    /**
+     * @return Amount of cached pair results.
+     * */
+    int size() {
+        return compatibilityByPair.size();
+    }
+
+    /**
+     * Unordered pair of tangles.
+     * */
+    private static final class Pair {
+        private final String tangle1, tangle2;
+
+        private Pair(String tangleA, String tangleB) {
+            boolean ordered = tangleA.compareTo(tangleB) < 0;
+            this.tangle1 = ordered ? tangleA : tangleB;
+            this.tangle2 = ordered ? tangleB : tangleA;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Pair))
+                return false;
+            Pair other = (Pair) obj;
+            return tangle1.equals(other.tangle1) && tangle2.equals(other.tangle2);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tangle1.hashCode() + tangle2.hashCode();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.iota.ec.model;
 
+import org.iota.ec.util.HierarchicalMerkleTree;
+import org.iota.ec.util.IndexableMerkleTree;
 import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
 import org.iota.ict.model.bundle.*;
 import org.iota.ict.model.transaction.Transaction;
@@ -13,9 +15,9 @@ import org.iota.ict.utils.crypto.MerkleTree;
 import org.iota.ict.utils.crypto.SignatureSchemeImplementation;
 
 import java.math.BigInteger;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Allows to run an economic actor by issuing markers. The actively-writing counter-part to {@link TrustedEconomicActor}.
@@ -23,21 +25,70 @@ import java.util.Set;
  * */
 public class ControlledEconomicActor extends EconomicActor {
 
-    protected final SerializableAutoIndexableMerkleTree merkleTree;
+    private static final ExecutorService signingPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        private final AtomicInteger created = new AtomicInteger();
 
-    public ControlledEconomicActor(SerializableAutoIndexableMerkleTree merkleTree) {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EC/signer-" + created.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    protected final IndexableMerkleTree merkleTree;
+
+    public ControlledEconomicActor(IndexableMerkleTree merkleTree) {
         super(merkleTree.getAddress());
         this.merkleTree = merkleTree;
     }
 
     public Bundle buildMarker(String trunk, String branch, double confidence) {
+        return buildMarker(trunk, branch, confidence, merkleTree.reserveIndex());
+    }
+
+    /**
+     * Builds one marker per tangle. The leaves are reserved in iteration order up front and in a single batch, so that
+     * the signatures, which dominate the cost of a marker, can be computed in parallel on a shared signing pool.
+     * @param confidenceByTangle Confidence to publish for each tangle (see {@link #tangleID(String, String)}).
+     * @return The markers in iteration order of the map.
+     * */
+    public List<Bundle> buildMarkers(Map<String, Double> confidenceByTangle) {
+        List<Future<Bundle>> futures = new ArrayList<>(confidenceByTangle.size());
+        int[] indexes = merkleTree.reserveIndexes(confidenceByTangle.size());
+        for(Map.Entry<String, Double> entry : confidenceByTangle.entrySet()) {
+            String tangle = entry.getKey();
+            int index = indexes[futures.size()];
+            futures.add(signingPool.submit(() -> buildMarker(tangle.substring(0, 81), tangle.substring(81), entry.getValue(), index)));
+        }
+
+        List<Bundle> markers = new ArrayList<>(futures.size());
+        try {
+            for(Future<Bundle> future : futures)
+                markers.add(future.get());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return markers;
+    }
+
+    private Bundle buildMarker(String trunk, String branch, double confidence, int index) {
 
-        Set<OutputBuilder> outputs = new HashSet<>();
+        // ordered so that the output to the actor address comes last and the bundle head carries that address
+        Set<OutputBuilder> outputs = new LinkedHashSet<>();
 
         String messageToSign =  messageToSign(trunk, branch);
-        SignatureSchemeImplementation.Signature signature = merkleTree.sign(messageToSign);
-        assert signature.deriveAddress().equals(address);
-        outputs.add(new OutputBuilder(address, BigInteger.ZERO, signature.toString()));
+        if(merkleTree instanceof HierarchicalMerkleTree) {
+            HierarchicalMerkleTree.HierarchicalSignature signature = ((HierarchicalMerkleTree) merkleTree).signHierarchically(index, messageToSign);
+            outputs.add(new OutputBuilder(signature.subTreeAddress, BigInteger.ZERO, signature.signature.toString()));
+            outputs.add(new OutputBuilder(address, BigInteger.ZERO, signature.certificate));
+        } else {
+            SignatureSchemeImplementation.Signature signature = ((SerializableAutoIndexableMerkleTree) merkleTree).sign(index, messageToSign);
+            assert signature.deriveAddress().equals(address);
+            outputs.add(new OutputBuilder(address, BigInteger.ZERO, signature.toString()));
+        }
 
         TransferBuilder transferBuilder =  new TransferBuilder(new HashSet<>(), outputs, merkleTree.getSecurityLevel());
         BundleBuilder bundleBuilder = transferBuilder.build();
@@ -49,7 +100,7 @@ public class ControlledEconomicActor extends EconomicActor {
         return bundleBuilder.build();
     }
 
-    public SerializableAutoIndexableMerkleTree getMerkleTree() {
+    public IndexableMerkleTree getMerkleTree() {
         return merkleTree;
     }
 }
@@ -2,110 +2,525 @@ package org.iota.ec.model;
 
 import org.iota.ict.eee.Environment;
 import org.iota.ict.ixi.Ixi;
-import org.iota.ict.model.bundle.Bundle;
 import org.iota.ict.model.transaction.Transaction;
 import org.iota.ict.network.gossip.GossipEvent;
 import org.iota.ict.network.gossip.GossipFilter;
 import org.iota.ict.network.gossip.GossipListener;
 import org.iota.ict.utils.Constants;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class EconomicCluster implements GossipListener {
 
     private final Ixi ixi;
-    private List<TrustedEconomicActor> actors = new LinkedList<>();
+    public static final int DEFAULT_SAMPLES = 256;
+    public static final int DEFAULT_SYNC_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final ActorRegistry registry = new ActorRegistry();
+    private volatile int samplingThreshold = Integer.MAX_VALUE, samples = DEFAULT_SAMPLES;
+    private final AtomicLong stateVersion = new AtomicLong();
+    private final ConfidenceCache confidenceCache = new ConfidenceCache(ConfidenceCache.DEFAULT_MAX_SIZE);
     private final ECGossipFilter filter = new ECGossipFilter();
+    private final MarkerPipeline pipeline;
+    private volatile ActorSnapshotStore snapshotStore;
+    // actors which are being synced and therefore not part of the cluster yet, by address. Moving an actor from here
+    // into the registry or removing it happens while holding its lock.
+    private final Map<String, TrustedEconomicActor> syncing = new ConcurrentHashMap<>();
+    private final ExecutorService syncPool = Executors.newFixedThreadPool(DEFAULT_SYNC_PARALLELISM, new SyncThreadFactory());
+    private final AtomicLong restoredSnapshots = new AtomicLong(), skippedMarkers = new AtomicLong();
+    private volatile long droppedTransactionsResolved;
 
     public EconomicCluster(Ixi ixi) {
+        this(ixi, MarkerPipeline.DEFAULT_VERIFIERS, MarkerPipeline.DEFAULT_CAPACITY, MarkerPipeline.Backpressure.BLOCK);
+    }
+
+    public EconomicCluster(Ixi ixi, int verifiers, int capacity, MarkerPipeline.Backpressure backpressure) {
         this.ixi = ixi;
+        this.pipeline = new MarkerPipeline(this, verifiers, capacity, backpressure);
         ixi.addListener(this);
     }
 
-    public void addActor(TrustedEconomicActor actor, boolean sync) {
-        if(filter.getWatchedAddresses().contains(actor.getAddress()))
-            throw new IllegalArgumentException("Actor " + actor.getAddress() + " already added.");
-        actors.add(actor);
-        filter.watchAddress(actor.getAddress());
+    public void terminate() {
+        ixi.removeListener(this);
+        pipeline.terminate();
+        syncPool.shutdownNow();
+    }
 
+    /**
+     * @param sync Whether to sync the markers the actor has already issued. The actor only becomes part of the cluster once
+     *             the sync is complete. Blocks until then.
+     * */
+    public void addActor(TrustedEconomicActor actor, boolean sync) {
         if(sync) {
-            Set<Transaction> possibleMarkers = ixi.findTransactionsByAddress(actor.getAddress());
-            for(Transaction transaction : possibleMarkers) {
+            addActors(Collections.singleton(actor));
+            return;
+        }
+        synchronized (syncing) {
+            if(syncing.containsKey(actor.getAddress()) || !registry.add(actor))
+                throw new IllegalArgumentException("Actor " + actor.getAddress() + " already added.");
+            filter.watchAddress(actor.getAddress());
+        }
+        stateChanged();
+    }
+
+    /**
+     * Syncs multiple actors in parallel and blocks until all of them have been added. Each actor becomes part of the
+     * cluster as soon as its own sync is complete, so that it is never used with an incomplete state. Markers received
+     * via gossip during the sync are already applied to it. An actor removed with {@link #removeActor(TrustedEconomicActor)}
+     * during its sync is not added. If the calling thread is interrupted, the syncs continue in the background.
+     * */
+    public void addActors(Collection<TrustedEconomicActor> actors) {
+        List<Future<?>> syncs = new LinkedList<>();
+        synchronized (syncing) {
+            for(TrustedEconomicActor actor : actors)
+                if(registry.snapshot().byAddress.containsKey(actor.getAddress()) || syncing.containsKey(actor.getAddress()))
+                    throw new IllegalArgumentException("Actor " + actor.getAddress() + " already added.");
+            for(TrustedEconomicActor actor : actors) {
+                if(syncing.putIfAbsent(actor.getAddress(), actor) != null)
+                    continue;
+                filter.watchAddress(actor.getAddress());
+                syncs.add(syncPool.submit(() -> syncAndRegister(actor)));
+            }
+        }
+
+        for(Future<?> sync : syncs) {
+            try {
+                sync.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while syncing actors.", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed syncing actor.", e.getCause());
+            }
+        }
+    }
+
+    private void syncAndRegister(TrustedEconomicActor actor) {
+        boolean registered = false;
+        try {
+            restoreSnapshot(actor);
+            List<Transaction> possibleMarkers = new LinkedList<>();
+            for(Transaction transaction : ixi.findTransactionsByAddress(actor.getAddress())) {
                 if(!transaction.isBundleHead)
                     continue;
-                Bundle possiblyMarker = new Bundle(transaction);
-                if(!possiblyMarker.isStructureValid())
+                if(actor.hasProcessedMarker(transaction.hash))
+                    skippedMarkers.incrementAndGet();
+                else
+                    possibleMarkers.add(transaction);
+            }
+            pipeline.submitMarkersAndWait(actor, possibleMarkers);
+            synchronized (syncing) {
+                // removed during the sync
+                if(syncing.get(actor.getAddress()) != actor)
                     return;
-                actor.processMarker(possiblyMarker);
+                if(!registry.add(actor))
+                    throw new IllegalArgumentException("Actor " + actor.getAddress() + " already added.");
+                // only after registering, so that the actor cannot be added twice in between
+                syncing.remove(actor.getAddress());
+                registered = true;
             }
+            stateChanged();
+        } finally {
+            if(!registered)
+                synchronized (syncing) {
+                    if(syncing.remove(actor.getAddress(), actor))
+                        filter.unwatchAddress(actor.getAddress());
+                }
         }
     }
 
+    private void restoreSnapshot(TrustedEconomicActor actor) {
+        ActorSnapshotStore store = snapshotStore;
+        ActorSnapshotStore.Snapshot snapshot = store == null ? null : store.load(actor);
+        if(snapshot == null)
+            return;
+        pipeline.runOnWriterAndWait(() -> snapshot.apply(actor, ixi));
+        stateChanged();
+        restoredSnapshots.incrementAndGet();
+    }
+
+    /**
+     * Removes an actor from the cluster. An actor which is still being synced is dropped once its sync is complete.
+     * */
     public void removeActor(TrustedEconomicActor actor) {
-        actors.remove(actor);
-        filter.unwatchAddress(actor.getAddress());
+        boolean wasRegistered;
+        synchronized (syncing) {
+            wasRegistered = registry.remove(actor);
+            // within the lock, so that a new actor with the same address cannot start watching in between
+            if(syncing.remove(actor.getAddress(), actor) || wasRegistered)
+                filter.unwatchAddress(actor.getAddress());
+        }
+        if(wasRegistered) {
+            stateChanged();
+            ActorSnapshotStore store = snapshotStore;
+            if(store != null)
+                store.delete(actor.getAddress());
+        }
+    }
+
+    /**
+     * @param snapshotStore Used to restore actors when they are added with sync and by {@link #storeSnapshots()}.
+     * */
+    public void setSnapshotStore(ActorSnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * Writes the snapshots of all actors. Blocks the marker pipeline while an actor is written.
+     * */
+    public void storeSnapshots() throws IOException {
+        ActorSnapshotStore store = snapshotStore;
+        if(store == null)
+            return;
+        for(TrustedEconomicActor actor : registry.snapshot().actors) {
+            IOException[] failure = new IOException[1];
+            pipeline.runOnWriterAndWait(() -> {
+                try {
+                    store.store(actor);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if(failure[0] != null)
+                throw failure[0];
+        }
+    }
+
+    /**
+     * Applies the retention policy of every actor (see {@link TrustedEconomicActor#enforceRetentionPolicy()}), which
+     * otherwise only happens whenever an actor issues a marker. Call periodically. Blocks the marker pipeline while an
+     * actor is processed.
+     * */
+    public void enforceRetentionPolicies() {
+        boolean[] evicted = new boolean[1];
+        for(TrustedEconomicActor actor : registry.snapshot().actors)
+            pipeline.runOnWriterAndWait(() -> evicted[0] |= actor.enforceRetentionPolicy());
+        if(evicted[0])
+            stateChanged();
+    }
+
+    /**
+     * Transactions dropped by the {@link MarkerPipeline} under {@link MarkerPipeline.Backpressure#DROP} are never delivered
+     * again, so SubTangles missing them would never walk their past cone. If any transaction has been dropped since the
+     * last call, looks up the missing transactions of all actors and resolves those which are known by now. Call
+     * periodically. The lookups happen on the calling thread, only the resolution blocks the marker pipeline.
+     * */
+    public void resolveDroppedTransactions() {
+        long droppedTransactions = pipeline.getDroppedTransactions();
+        if(droppedTransactions == droppedTransactionsResolved)
+            return;
+        droppedTransactionsResolved = droppedTransactions;
+        boolean[] resolved = new boolean[1];
+        for(TrustedEconomicActor actor : getActorsIncludingSyncing()) {
+            Map<String, Transaction> found = actor.findMissingTransactions(ixi);
+            if(!found.isEmpty())
+                pipeline.runOnWriterAndWait(() -> resolved[0] |= actor.processTransactions(found));
+        }
+        if(resolved[0])
+            stateChanged();
+    }
+
+    /**
+     * Changes the trust of an actor of this cluster. Must be used instead of {@link TrustedEconomicActor#setTrust(double)}
+     * for actors which have already been added, otherwise the cluster will keep using the old trust.
+     * */
+    public void setTrust(TrustedEconomicActor actor, double trust) {
+        registry.setTrust(actor, trust);
+        stateChanged();
     }
 
     public Set<String> getAllTangles() {
         Set<String> allTangles = new HashSet<>();
-        for(TrustedEconomicActor actor : actors)
+        for(TrustedEconomicActor actor : registry.snapshot().actors)
             allTangles.addAll(actor.getMarkedTangles().keySet());
         return allTangles;
     }
 
     public double determineApprovalConfidence(String transactionHash) {
-        double maxAbsTrust = calcMaxAbsTrust();
-        double absTrust = 0;
-        for(TrustedEconomicActor actor : actors) {
-            absTrust += actor.getTrust() * actor.getConfidence(transactionHash);
-        }
-        return maxAbsTrust > 0 ? absTrust / maxAbsTrust : 0;
+        return determineApproval(transactionHash).confidence;
     }
 
     public double determineTurnout(String transactionHash) {
-        double maxAbsTurnout = calcMaxAbsTrust();
-        double absTurnout = 0;
-        for(TrustedEconomicActor actor : actors) {
-            if(actor.hasReferenced(transactionHash))
-                absTurnout += actor.getTrust();
+        return determineApproval(transactionHash).turnout;
+    }
+
+    /**
+     * Determines approval confidence and turnout in a single pass over all actors. Results are cached until the next
+     * change of the cluster state.
+     * */
+    public Approval determineApproval(String transactionHash) {
+        long version = stateVersion.get();
+        Approval approval = confidenceCache.get(transactionHash, version);
+        if(approval == null) {
+            approval = calculateApproval(transactionHash);
+            confidenceCache.put(transactionHash, version, approval);
         }
-        return maxAbsTurnout > 0 ? absTurnout / maxAbsTurnout : 0;
+        return approval;
     }
 
-    private double calcMaxAbsTrust() {
-        double trustSum = 0;
-        for(TrustedEconomicActor actor : actors) {
-            trustSum += actor.getTrust();
+    private Approval calculateApproval(String transactionHash) {
+        ActorRegistry.Snapshot snapshot = registry.snapshot();
+        if(isSampling(snapshot))
+            return estimateApprovals(snapshot, new String[] {transactionHash}).get(0);
+        TrustedEconomicActor[] actors = snapshot.actors;
+        double[] trusts = snapshot.trusts;
+
+        // virtual calls first, so the aggregation below is a tight loop over primitive arrays
+        double[] confidences = new double[actors.length];
+        for(int i = 0; i < actors.length; i++)
+            confidences[i] = actors[i].getConfidenceIfReferenced(transactionHash);
+
+        double absConfidence = 0, absTurnout = 0;
+        for(int i = 0; i < confidences.length; i++) {
+            double referenced = confidences[i] >= 0 ? 1 : 0;
+            absConfidence += trusts[i] * referenced * confidences[i];
+            absTurnout += trusts[i] * referenced;
         }
-        return trustSum;
+
+        return snapshot.totalTrust > 0
+                ? new Approval(absConfidence / snapshot.totalTrust, absTurnout / snapshot.totalTrust)
+                : new Approval(0, 0);
     }
 
-    @Override
-    public void onReceive(GossipEvent event) {
-        Transaction transaction = event.getTransaction();
+    /**
+     * Batch version of {@link #determineApproval(String)}. Visits every actor only once for the whole batch instead of
+     * once per transaction. Only transactions not found in the cache are calculated.
+     * @param transactionHashes Hashes of the transactions to query. Duplicates are only evaluated once.
+     * */
+    public Approvals determineApprovalConfidences(Collection<String> transactionHashes) {
+        long version = stateVersion.get();
+        String[] hashes = new LinkedHashSet<>(transactionHashes).toArray(new String[0]);
+        double[] confidences = new double[hashes.length];
+        double[] turnouts = new double[hashes.length];
+        double[] confidenceErrors = new double[hashes.length];
+        double[] turnoutErrors = new double[hashes.length];
+
+        int[] uncachedPositions = new int[hashes.length];
+        int amountUncached = 0;
+        for(int i = 0; i < hashes.length; i++) {
+            Approval cached = confidenceCache.get(hashes[i], version);
+            if(cached != null) {
+                confidences[i] = cached.confidence;
+                turnouts[i] = cached.turnout;
+                confidenceErrors[i] = cached.confidenceError;
+                turnoutErrors[i] = cached.turnoutError;
+            } else {
+                uncachedPositions[amountUncached++] = i;
+            }
+        }
 
-        if(filter.passes(transaction)) {
+        if(amountUncached > 0) {
+            String[] uncachedHashes = new String[amountUncached];
+            for(int i = 0; i < amountUncached; i++)
+                uncachedHashes[i] = hashes[uncachedPositions[i]];
+            Approvals calculated = calculateApprovals(uncachedHashes);
+            for(int i = 0; i < amountUncached; i++) {
+                int position = uncachedPositions[i];
+                confidences[position] = calculated.confidences[i];
+                turnouts[position] = calculated.turnouts[i];
+                confidenceErrors[position] = calculated.confidenceErrors[i];
+                turnoutErrors[position] = calculated.turnoutErrors[i];
+                confidenceCache.put(uncachedHashes[i], version, calculated.get(i));
+            }
+        }
 
-            Bundle possiblyMarker = new Bundle(transaction);
-            if(!possiblyMarker.isStructureValid())
-                return;
+        return new Approvals(hashes, confidences, turnouts, confidenceErrors, turnoutErrors);
+    }
 
-            for(TrustedEconomicActor actor : actors) {
-                if(actor.getAddress().equals(transaction.address()))
-                    actor.processMarker(possiblyMarker);
+    private Approvals calculateApprovals(String[] hashes) {
+        ActorRegistry.Snapshot snapshot = registry.snapshot();
+        if(isSampling(snapshot))
+            return estimateApprovals(snapshot, hashes);
+
+        double[] confidences = new double[hashes.length];
+        double[] turnouts = new double[hashes.length];
+        TrustedEconomicActor[] actors = snapshot.actors;
+        double[] trusts = snapshot.trusts;
+        double[] confidencesOfActor = new double[hashes.length];
+
+        for(int a = 0; a < actors.length; a++) {
+            actors[a].getConfidencesIfReferenced(hashes, confidencesOfActor);
+            double trust = trusts[a];
+            for(int i = 0; i < hashes.length; i++) {
+                double referenced = confidencesOfActor[i] >= 0 ? 1 : 0;
+                confidences[i] += trust * referenced * confidencesOfActor[i];
+                turnouts[i] += trust * referenced;
+            }
+        }
+
+        if(snapshot.totalTrust > 0) {
+            for(int i = 0; i < hashes.length; i++) {
+                confidences[i] /= snapshot.totalTrust;
+                turnouts[i] /= snapshot.totalTrust;
             }
         }
+        return new Approvals(hashes, confidences, turnouts, new double[hashes.length], new double[hashes.length]);
+    }
+
+    /**
+     * Estimates confidence and turnout from a sample of actors instead of asking all of them. Actors are drawn with
+     * replacement in proportion to their trust, so the trust-weighted sum over all actors becomes the plain mean over
+     * the sample. The cost depends only on the sample size, not on the amount of actors in the cluster.
+     * */
+    private Approvals estimateApprovals(ActorRegistry.Snapshot snapshot, String[] hashes) {
+        AliasTable aliasTable = snapshot.aliasTable();
+        Random random = ThreadLocalRandom.current();
+        int amountOfSamples = samples;
+        int[] sampled = new int[amountOfSamples];
+        for(int s = 0; s < amountOfSamples; s++)
+            sampled[s] = aliasTable.sample(random);
+        // sorting groups duplicates so every sampled actor is only queried once
+        Arrays.sort(sampled);
+
+        double[] sumConfidences = new double[hashes.length], sumSquaredConfidences = new double[hashes.length];
+        double[] sumTurnouts = new double[hashes.length];
+        double[] confidencesOfActor = new double[hashes.length];
 
-        for(TrustedEconomicActor actor : actors) {
-            actor.processTransaction(transaction);
+        for(int start = 0; start < amountOfSamples; ) {
+            int end = start;
+            while (end < amountOfSamples && sampled[end] == sampled[start])
+                end++;
+            int timesSampled = end - start;
+            snapshot.actors[sampled[start]].getConfidencesIfReferenced(hashes, confidencesOfActor);
+            for(int i = 0; i < hashes.length; i++) {
+                double referenced = confidencesOfActor[i] >= 0 ? 1 : 0;
+                double confidence = referenced * confidencesOfActor[i];
+                sumConfidences[i] += timesSampled * confidence;
+                sumSquaredConfidences[i] += timesSampled * confidence * confidence;
+                sumTurnouts[i] += timesSampled * referenced;
+            }
+            start = end;
+        }
+
+        double[] confidences = new double[hashes.length], turnouts = new double[hashes.length];
+        double[] confidenceErrors = new double[hashes.length], turnoutErrors = new double[hashes.length];
+        for(int i = 0; i < hashes.length; i++) {
+            confidences[i] = sumConfidences[i] / amountOfSamples;
+            turnouts[i] = sumTurnouts[i] / amountOfSamples;
+            // turnout samples are either 0 or 1, so their mean of squares equals their mean
+            confidenceErrors[i] = standardError(sumSquaredConfidences[i] / amountOfSamples, confidences[i], amountOfSamples);
+            turnoutErrors[i] = standardError(turnouts[i], turnouts[i], amountOfSamples);
         }
+        return new Approvals(hashes, confidences, turnouts, confidenceErrors, turnoutErrors);
+    }
+
+    private static double standardError(double meanOfSquares, double mean, int amountOfSamples) {
+        if(amountOfSamples < 2)
+            return 1;
+        double variance = Math.max(0, meanOfSquares - mean * mean) * amountOfSamples / (amountOfSamples - 1);
+        return Math.sqrt(variance / amountOfSamples);
+    }
+
+    private boolean isSampling(ActorRegistry.Snapshot snapshot) {
+        return snapshot.actors.length > samplingThreshold && snapshot.totalTrust > 0;
+    }
+
+    /**
+     * Enables the approximate mode for large clusters. Once the cluster contains more actors than the threshold,
+     * confidences are estimated from a trust-weighted sample of actors instead of being calculated exactly. The
+     * estimation error is reported in {@link Approval#confidenceError} and {@link Approval#turnoutError}.
+     * @param actorThreshold Amount of actors above which to sample. {@link Integer#MAX_VALUE} to always be exact.
+     * @param samples Amount of actors to draw per query. The standard error shrinks with the square root of this number.
+     * */
+    public void setSampling(int actorThreshold, int samples) {
+        if(samples < 2)
+            throw new IllegalArgumentException("'samples' must be at least 2.");
+        this.samplingThreshold = actorThreshold;
+        this.samples = samples;
+        stateChanged();
+    }
+
+    public int getSamplingThreshold() {
+        return samplingThreshold;
+    }
+
+    public int getSamples() {
+        return samples;
     }
 
-    public LinkedList<TrustedEconomicActor> getActors() {
-        return new LinkedList<>(actors);
+    /**
+     * Advances the state version and thereby invalidates all cached confidences. Must be called whenever something
+     * changes which might affect the confidence of any transaction.
+     * */
+    void stateChanged() {
+        stateVersion.incrementAndGet();
+    }
+
+    /**
+     * @return A number which advances whenever the state of this cluster changes, e.g. when a marker was processed.
+     * */
+    public long getStateVersion() {
+        return stateVersion.get();
+    }
+
+    public ConfidenceCache getConfidenceCache() {
+        return confidenceCache;
+    }
+
+    /**
+     * Only filters the transaction. Everything else is left to the {@link MarkerPipeline} so the gossip thread is not blocked.
+     * */
+    @Override
+    public void onReceive(GossipEvent event) {
+        Transaction transaction = event.getTransaction();
+        if(filter.passes(transaction))
+            pipeline.submitMarker(transaction);
+        pipeline.submitTransaction(transaction);
+    }
+
+    /**
+     * @return The actor with the respective address or {@code null} if this cluster does not contain such an actor.
+     * */
+    public TrustedEconomicActor findActor(String address) {
+        return registry.snapshot().byAddress.get(address);
+    }
+
+    /**
+     * @return An immutable snapshot of all actors in this cluster. Not affected by later changes.
+     * */
+    public List<TrustedEconomicActor> getActors() {
+        return registry.snapshot().list;
+    }
+
+    /**
+     * Like {@link #findActor(String)} but also finds actors which are still being synced. Used to apply their markers.
+     * */
+    public TrustedEconomicActor findActorIncludingSyncing(String address) {
+        TrustedEconomicActor actor = findActor(address);
+        return actor != null ? actor : syncing.get(address);
+    }
+
+    /**
+     * Like {@link #getActors()} but also contains actors which are still being synced.
+     * */
+    List<TrustedEconomicActor> getActorsIncludingSyncing() {
+        if(syncing.isEmpty())
+            return getActors();
+        List<TrustedEconomicActor> actors = new ArrayList<>(getActors());
+        actors.addAll(syncing.values());
+        return actors;
+    }
+
+    public int amountOfSyncingActors() {
+        return syncing.size();
+    }
+
+    public MarkerPipeline getMarkerPipeline() {
+        return pipeline;
+    }
+
+    public long getRestoredSnapshots() {
+        return restoredSnapshots.get();
+    }
+
+    /**
+     * @return Amount of markers which did not have to be verified during syncs because they were contained in a snapshot.
+     * */
+    public long getSkippedMarkers() {
+        return skippedMarkers.get();
     }
 
     @Override
@@ -113,6 +528,146 @@ public class EconomicCluster implements GossipListener {
         return Constants.Environments.GOSSIP;
     }
 
+    /**
+     * Approval of a transaction by the cluster.
+     * */
+    public static class Approval {
+        /** Trust-weighted confidence of all actors into the transaction, within interval [0,1]. */
+        public final double confidence;
+        /** Trust-weighted share of actors which have referenced the transaction at all, within interval [0,1]. */
+        public final double turnout;
+        /** Standard error of {@link #confidence}. Zero unless the cluster estimated it by sampling. */
+        public final double confidenceError;
+        /** Standard error of {@link #turnout}. Zero unless the cluster estimated it by sampling. */
+        public final double turnoutError;
+
+        Approval(double confidence, double turnout) {
+            this(confidence, turnout, 0, 0);
+        }
+
+        Approval(double confidence, double turnout, double confidenceError, double turnoutError) {
+            this.confidence = confidence;
+            this.turnout = turnout;
+            this.confidenceError = confidenceError;
+            this.turnoutError = turnoutError;
+        }
+    }
+
+    /**
+     * Captures all marked tangles together with the approvals of their references in one bulk query. Immutable, so
+     * that several actors can tick in parallel on the same consistent state without querying the cluster each.
+     * @param additionalTangles Tangles to include besides those marked in the cluster.
+     * */
+    public View createView(Collection<String> additionalTangles) {
+        long stateVersion = getStateVersion();
+        Set<String> tangles = getAllTangles();
+        tangles.addAll(additionalTangles);
+        Set<String> references = new HashSet<>();
+        for(String tangle : tangles) {
+            references.add(tangle.substring(0, 81));
+            references.add(tangle.substring(81));
+        }
+        return new View(stateVersion, Collections.unmodifiableSet(tangles), determineApprovalConfidences(references));
+    }
+
+    public static class View {
+        private final long stateVersion;
+        private final Set<String> tangles;
+        private final Approvals approvals;
+
+        private View(long stateVersion, Set<String> tangles, Approvals approvals) {
+            this.stateVersion = stateVersion;
+            this.tangles = tangles;
+            this.approvals = approvals;
+        }
+
+        /**
+         * @return The state version of the cluster before this view was created.
+         * */
+        public long getStateVersion() {
+            return stateVersion;
+        }
+
+        public Set<String> getTangles() {
+            return tangles;
+        }
+
+        /**
+         * @return Approvals of both references of every tangle in {@link #getTangles()}.
+         * */
+        public Approvals getApprovals() {
+            return approvals;
+        }
+    }
+
+    /**
+     * Result of {@link #determineApprovalConfidences(Collection)}. Confidence and turnout of the i-th queried hash are
+     * stored at position i of the respective array.
+     * */
+    public static class Approvals {
+        private final String[] hashes;
+        private final double[] confidences;
+        private final double[] turnouts;
+        private final double[] confidenceErrors;
+        private final double[] turnoutErrors;
+        private volatile Map<String, Integer> indexByHash;
+
+        Approvals(String[] hashes, double[] confidences, double[] turnouts, double[] confidenceErrors, double[] turnoutErrors) {
+            this.hashes = hashes;
+            this.confidences = confidences;
+            this.turnouts = turnouts;
+            this.confidenceErrors = confidenceErrors;
+            this.turnoutErrors = turnoutErrors;
+        }
+
+        public Approval get(int index) {
+            return new Approval(confidences[index], turnouts[index], confidenceErrors[index], turnoutErrors[index]);
+        }
+
+        public double getConfidenceError(int index) {
+            return confidenceErrors[index];
+        }
+
+        public int size() {
+            return hashes.length;
+        }
+
+        public String getHash(int index) {
+            return hashes[index];
+        }
+
+        public double getConfidence(int index) {
+            return confidences[index];
+        }
+
+        public double getTurnout(int index) {
+            return turnouts[index];
+        }
+
+        /**
+         * @return Position of the hash in this result or -1 if it was not queried.
+         * */
+        public int indexOf(String hash) {
+            if(indexByHash == null) {
+                Map<String, Integer> indexByHash = new HashMap<>();
+                for(int i = 0; i < hashes.length; i++)
+                    indexByHash.put(hashes[i], i);
+                this.indexByHash = indexByHash;
+            }
+            return indexByHash.getOrDefault(hash, -1);
+        }
+
+        public double getConfidence(String hash) {
+            int index = indexOf(hash);
+            return index < 0 ? 0 : confidences[index];
+        }
+
+        public double getTurnout(String hash) {
+            int index = indexOf(hash);
+            return index < 0 ? 0 : turnouts[index];
+        }
+    }
+
     private class ECGossipFilter extends GossipFilter {
 
         @Override
@@ -120,4 +675,15 @@ public class EconomicCluster implements GossipListener {
             return transaction.isBundleHead && super.passes(transaction);
         }
     }
+
+    private static class SyncThreadFactory implements ThreadFactory {
+        private int created = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EC/sync-" + created++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
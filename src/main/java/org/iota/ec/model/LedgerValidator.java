@@ -15,19 +15,28 @@ public class LedgerValidator {
     protected final Ixi ixi;
 
     protected final Map<String, BigInteger> initialBalances;
-    protected final Map<String, String> dependencyByTransfer = new HashMap<>();
-    protected final Set<String> invalidTransfers = new HashSet<>(), validTransfers = new HashSet<>();
+    protected final ValidationCache validationCache;
+    protected final Map<String, String> dependencyByTransfer;
+    protected final Set<String> invalidTransfers, validTransfers;
 
     LedgerValidator(Ixi ixi) {
-        this.ixi = ixi;
-        validTransfers.add(Transaction.NULL_TRANSACTION.hash);
-        initialBalances = new HashMap<>();
+        this(ixi, new HashMap<>());
     }
 
     LedgerValidator(Ixi ixi, Map<String, BigInteger> initialBalances) {
+        this(ixi, initialBalances, new ValidationCache());
+    }
+
+    /**
+     * @param validationCache Validation results shared with other validators. Only the initial balances are private.
+     * */
+    LedgerValidator(Ixi ixi, Map<String, BigInteger> initialBalances, ValidationCache validationCache) {
         this.ixi = ixi;
-        validTransfers.add(Transaction.NULL_TRANSACTION.hash);
         this.initialBalances = new HashMap<>(initialBalances);
+        this.validationCache = validationCache;
+        this.dependencyByTransfer = validationCache.dependencyByTransfer;
+        this.invalidTransfers = validationCache.invalidTransfers;
+        this.validTransfers = validationCache.validTransfers;
     }
 
     public void changeInitialBalance(String address, BigInteger toAdd) {
@@ -81,8 +90,22 @@ public class LedgerValidator {
     }
 
     protected Map<String, BigInteger> calcBalances(Transaction root) {
-
         Map<String, BigInteger> balances = new HashMap<>(initialBalances);
+        for(Map.Entry<String, BigInteger> delta : calcBalanceChanges(root).entrySet())
+            balances.merge(delta.getKey(), delta.getValue(), BigInteger::add);
+        return balances;
+    }
+
+    /**
+     * @return Sum of values per address of all transactions in the tangle, independent of the initial balances and
+     *         therefore cached in the shared {@link ValidationCache}.
+     * */
+    protected Map<String, BigInteger> calcBalanceChanges(Transaction root) {
+        Map<String, BigInteger> cached = validationCache.getDelta(root.hash);
+        if(cached != null)
+            return cached;
+
+        Map<String, BigInteger> changes = new HashMap<>();
         LinkedList<Transaction> toTraverse = new LinkedList<>();
         Set<String> traversed = new HashSet<>();
         toTraverse.add(root);
@@ -93,7 +116,7 @@ public class LedgerValidator {
             if(traversed.add(current.hash)) {
                 if(!current.value.equals(BigInteger.ZERO)) {
                     String address = current.address();
-                    balances.put(address, balances.containsKey(address) ? balances.get(address).add(current.value) : current.value);
+                    changes.put(address, changes.containsKey(address) ? changes.get(address).add(current.value) : current.value);
                 }
 
                 Transaction branch = current.getBranch();
@@ -105,7 +128,8 @@ public class LedgerValidator {
             }
         }
 
-        return balances;
+        validationCache.putDelta(root.hash, Collections.unmodifiableMap(changes));
+        return changes;
     }
 
     public boolean isTangleValid(String rootHash) {
@@ -0,0 +1,101 @@
+package org.iota.ec.model;
+
+import java.util.*;
+
+/**
+ * Collects the confidence updates an {@link AutonomousEconomicActor} wants to publish and decides which of them are
+ * actually issued as markers. Only the latest update per tangle is kept. Updates are ranked by how much they change the
+ * published confidence and issued under a token bucket rate limit and a leaf budget which keeps a reserve of Merkle
+ * leaves untouched. Updates exceeding the budget stay pending for the next tick. Not thread-safe.
+ * */
+class MarkerBatcher {
+
+    // unlimited unless configured
+    static final double DEFAULT_MARKERS_PER_SECOND = Double.POSITIVE_INFINITY;
+    static final int DEFAULT_BURST = Integer.MAX_VALUE;
+    static final int DEFAULT_LEAF_RESERVE = 0;
+
+    private final Map<String, Update> pending = new HashMap<>();
+    private double markersPerSecond = DEFAULT_MARKERS_PER_SECOND;
+    private int burst = DEFAULT_BURST, leafReserve = DEFAULT_LEAF_RESERVE;
+    private double tokens = DEFAULT_BURST;
+    private long lastRefill = System.currentTimeMillis();
+
+    /**
+     * @param markersPerSecond Average rate at which markers may be issued.
+     * @param burst Maximum amount of markers issued at once after a quiet period.
+     * @param leafReserve Amount of leaves which must remain unused.
+     * */
+    void setBudget(double markersPerSecond, int burst, int leafReserve) {
+        if(markersPerSecond <= 0)
+            throw new IllegalArgumentException("'markersPerSecond' must be positive.");
+        if(burst < 1)
+            throw new IllegalArgumentException("'burst' must be positive.");
+        if(leafReserve < 0)
+            throw new IllegalArgumentException("'leafReserve' must not be negative.");
+        refill();
+        this.markersPerSecond = markersPerSecond;
+        this.burst = burst;
+        this.leafReserve = leafReserve;
+        this.tokens = Math.min(tokens, burst);
+    }
+
+    /**
+     * Replaces any pending update for the same tangle.
+     * @param change Absolute difference to the currently published confidence, used for ranking.
+     * */
+    void offer(String tangle, double confidence, double change) {
+        pending.put(tangle, new Update(tangle, confidence, change));
+    }
+
+    /**
+     * Drops pending updates of tangles which are no longer considered.
+     * */
+    void retainOnly(Set<String> tangles) {
+        pending.keySet().retainAll(tangles);
+    }
+
+    /**
+     * Removes the updates to issue now from the pending ones.
+     * @param leavesLeft Amount of unused leaves of the actor's Merkle tree.
+     * @return Confidence to publish by tangle, ordered by descending change.
+     * */
+    Map<String, Double> drain(int leavesLeft) {
+        refill();
+        int budget = (int)Math.min(Math.floor(tokens), leavesLeft - leafReserve);
+        Map<String, Double> toIssue = new LinkedHashMap<>();
+        if(budget <= 0 || pending.isEmpty())
+            return toIssue;
+
+        List<Update> ranked = new ArrayList<>(pending.values());
+        ranked.sort((a, b) -> Double.compare(b.change, a.change));
+        for(Update update : ranked.subList(0, Math.min(budget, ranked.size()))) {
+            toIssue.put(update.tangle, update.confidence);
+            pending.remove(update.tangle);
+        }
+        tokens -= toIssue.size();
+        return toIssue;
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        tokens = Double.isInfinite(markersPerSecond) ? burst : Math.min(burst, tokens + (now - lastRefill) / 1000.0 * markersPerSecond);
+        lastRefill = now;
+    }
+
+    int amountPending() {
+        return pending.size();
+    }
+
+    private static class Update {
+        private final String tangle;
+        private final double confidence;
+        private final double change;
+
+        private Update(String tangle, double confidence, double change) {
+            this.tangle = tangle;
+            this.confidence = confidence;
+            this.change = change;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package org.iota.ec.model;
+
+import org.iota.ict.model.bundle.Bundle;
+import org.iota.ict.model.transaction.Transaction;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes markers off the gossip thread in three stages. Cheap filtering happens inline in {@link EconomicCluster#onReceive},
+ * signatures are verified in parallel by a pool of verifiers and a single writer applies the verified markers to the
+ * state of the trusted actors. Only the writer modifies the actor state, and it publishes every change as new immutable
+ * SubTangles (see {@link TrustedEconomicActor}), so that readers on other threads never see a partially modified state.
+ * */
+public class MarkerPipeline {
+
+    public static final int DEFAULT_VERIFIERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * Decides what happens to markers and transactions received via gossip while the respective queue is full.
+     * */
+    public enum Backpressure {
+        /** Stall the gossip thread until the queue has space again. */
+        BLOCK,
+        /**
+         * Drop the marker (or transaction). A dropped marker can be recovered by re-syncing the actor, dropped transactions
+         * are looked up again by {@link EconomicCluster#resolveDroppedTransactions()}.
+         * */
+        DROP
+    }
+
+    private final EconomicCluster cluster;
+    private final Backpressure backpressure;
+    private final BlockingQueue<Runnable> verificationQueue;
+    private final BlockingQueue<Runnable> writerQueue;
+    private final List<Thread> threads = new LinkedList<>();
+    private volatile boolean running = true;
+
+    private final AtomicLong verified = new AtomicLong(), rejected = new AtomicLong(), dropped = new AtomicLong(), applied = new AtomicLong();
+    private final AtomicLong droppedTransactions = new AtomicLong(), transactionBatches = new AtomicLong();
+    // gossiped transactions waiting for the writer, which processes all of them in a single batch
+    private final Queue<Transaction> pendingTransactions = new ConcurrentLinkedQueue<>();
+    private final Semaphore pendingTransactionPermits;
+    private final AtomicBoolean transactionBatchQueued = new AtomicBoolean();
+    // latches of threads waiting for queued tasks, released on termination since the tasks will never run
+    private final Set<CountDownLatch> awaited = ConcurrentHashMap.newKeySet();
+
+    MarkerPipeline(EconomicCluster cluster, int verifiers, int capacity, Backpressure backpressure) {
+        if(verifiers < 1)
+            throw new IllegalArgumentException("'verifiers' must be positive.");
+        this.cluster = cluster;
+        this.backpressure = backpressure;
+        this.verificationQueue = new ArrayBlockingQueue<>(capacity);
+        this.writerQueue = new ArrayBlockingQueue<>(capacity);
+        this.pendingTransactionPermits = new Semaphore(capacity);
+        for(int i = 0; i < verifiers; i++)
+            start(verificationQueue, "EC/verifier-" + i);
+        start(writerQueue, "EC/writer");
+    }
+
+    private void start(BlockingQueue<Runnable> queue, String name) {
+        Thread thread = new Thread(() -> work(queue), name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void work(BlockingQueue<Runnable> queue) {
+        while (running) {
+            try {
+                queue.take().run();
+            } catch (InterruptedException e) {
+                if(running) throw new RuntimeException(e);
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops all stages. Threads waiting in {@link #submitMarkersAndWait(TrustedEconomicActor, Collection)} or
+     * {@link #runOnWriterAndWait(Runnable)} fail instead of waiting for tasks which will never run.
+     * */
+    void terminate() {
+        running = false;
+        for(Thread thread : threads)
+            thread.interrupt();
+        for(CountDownLatch latch : awaited)
+            while (latch.getCount() > 0)
+                latch.countDown();
+    }
+
+    /**
+     * Queues a possible marker received via gossip. Depending on the {@link Backpressure}, this will either block or drop the
+     * marker if the verification queue is full.
+     * @param head Bundle head of the possible marker. Must have passed the gossip filter.
+     * */
+    void submitMarker(Transaction head) {
+        Runnable verification = () -> verify(null, head, null);
+        if(backpressure == Backpressure.DROP) {
+            if(!verificationQueue.offer(verification))
+                dropped.incrementAndGet();
+        } else if(!put(verificationQueue, verification)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Runs all possible markers of an actor through the pipeline and blocks until all of them have been applied. Unlike
+     * {@link #submitMarker(Transaction)}, these markers are never dropped.
+     * @param actor The actor which issued the markers.
+     * @param heads Bundle heads of all possible markers.
+     * @throws RejectedExecutionException If not all markers could be queued or the pipeline was terminated meanwhile.
+     * */
+    void submitMarkersAndWait(TrustedEconomicActor actor, Collection<Transaction> heads) {
+        CountDownLatch done = new CountDownLatch(heads.size());
+        awaited.add(done);
+        for(Transaction head : heads) {
+            if(!put(verificationQueue, () -> verify(actor, head, done))) {
+                awaited.remove(done);
+                throw new RejectedExecutionException("Markers of actor " + actor.getAddress() + " were not queued.");
+            }
+        }
+        await(done);
+    }
+
+    /**
+     * Runs a task on the writer and blocks until it is done. The task sees a consistent state of all actors and may modify it.
+     * @throws RejectedExecutionException If the task could not be queued or the pipeline was terminated before it ran.
+     * */
+    void runOnWriterAndWait(Runnable task) {
+        CountDownLatch done = new CountDownLatch(1);
+        awaited.add(done);
+        boolean queued = put(writerQueue, () -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        if(!queued) {
+            awaited.remove(done);
+            throw new RejectedExecutionException("Task was not queued for the writer.");
+        }
+        await(done);
+    }
+
+    /**
+     * Blocks until the queued tasks have counted down the latch, or until {@link #terminate()} released it.
+     * */
+    private void await(CountDownLatch done) {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the marker pipeline.", e);
+        } finally {
+            awaited.remove(done);
+        }
+        if(!running)
+            throw new RejectedExecutionException("Marker pipeline was terminated.");
+    }
+
+    /**
+     * Passes a transaction received via gossip to the writer so the actors can look for transactions they are missing.
+     * At most as many transactions as the capacity wait for the writer, beyond that the {@link Backpressure} applies like
+     * for {@link #submitMarker(Transaction)}.
+     * */
+    void submitTransaction(Transaction transaction) {
+        if(backpressure == Backpressure.DROP) {
+            if(pendingTransactionPermits.tryAcquire())
+                pendingTransactions.add(transaction);
+            else
+                droppedTransactions.incrementAndGet();
+        } else {
+            try {
+                pendingTransactionPermits.acquire();
+                pendingTransactions.add(transaction);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        queueTransactionBatch();
+    }
+
+    /**
+     * Makes sure that a task processing the pending transactions is queued for the writer. Transactions submitted while
+     * that task waits in the queue are processed by it as well, so that under load the SubTangles are copied once per
+     * batch instead of once per transaction.
+     * */
+    private void queueTransactionBatch() {
+        if(!transactionBatchQueued.compareAndSet(false, true))
+            return;
+        if(backpressure == Backpressure.DROP) {
+            // retried with the next transaction
+            if(!writerQueue.offer(this::processTransactionBatch))
+                transactionBatchQueued.set(false);
+        } else if(!put(writerQueue, this::processTransactionBatch)) {
+            transactionBatchQueued.set(false);
+        }
+    }
+
+    private void processTransactionBatch() {
+        // reset first, so that transactions submitted from now on queue another batch
+        transactionBatchQueued.set(false);
+        Map<String, Transaction> batch = new HashMap<>();
+        int drained = 0;
+        for(Transaction transaction; (transaction = pendingTransactions.poll()) != null; drained++)
+            batch.put(transaction.hash, transaction);
+        pendingTransactionPermits.release(drained);
+        if(batch.isEmpty())
+            return;
+
+        boolean changed = false;
+        for(TrustedEconomicActor actor : cluster.getActorsIncludingSyncing())
+            changed |= actor.processTransactions(batch);
+        if(changed)
+            cluster.stateChanged();
+        transactionBatches.incrementAndGet();
+    }
+
+    private void verify(TrustedEconomicActor actorOrNull, Transaction head, CountDownLatch done) {
+        try {
+            TrustedEconomicActor actor = actorOrNull != null ? actorOrNull : cluster.findActorIncludingSyncing(head.address());
+            Bundle possiblyMarker = new Bundle(head);
+            if(actor == null || !possiblyMarker.isStructureValid()) {
+                countDown(done);
+                return;
+            }
+
+            int index = actor.verifyMarker(possiblyMarker);
+            if(index < 0) {
+                actor.markerRejected(head.hash);
+                rejected.incrementAndGet();
+                countDown(done);
+                return;
+            }
+
+            verified.incrementAndGet();
+            boolean queued = put(writerQueue, () -> {
+                try {
+                    actor.applyMarker(possiblyMarker, index);
+                    cluster.stateChanged();
+                    applied.incrementAndGet();
+                } finally {
+                    countDown(done);
+                }
+            });
+            if(!queued)
+                countDown(done);
+        } catch (Throwable t) {
+            countDown(done);
+            throw t;
+        }
+    }
+
+    private static void countDown(CountDownLatch latchOrNull) {
+        if(latchOrNull != null)
+            latchOrNull.countDown();
+    }
+
+    /**
+     * @return Whether the task was queued. {@code false} if the pipeline was terminated or the calling thread was
+     *         interrupted while waiting for space, in which case the interrupt flag is restored.
+     * */
+    private boolean put(BlockingQueue<Runnable> queue, Runnable task) {
+        if(!running)
+            return false;
+        try {
+            queue.put(task);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /****** METRICS ******/
+
+    public int getVerificationQueueDepth() {
+        return verificationQueue.size();
+    }
+
+    public int getWriterQueueDepth() {
+        return writerQueue.size();
+    }
+
+    public int getCapacity() {
+        return verificationQueue.size() + verificationQueue.remainingCapacity();
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public long getVerified() {
+        return verified.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return Amount of gossiped transactions which were not checked for being missing in a SubTangle due to {@link Backpressure#DROP}.
+     * */
+    public long getDroppedTransactions() {
+        return droppedTransactions.get();
+    }
+
+    /**
+     * @return Amount of batches in which gossiped transactions were processed by the writer.
+     * */
+    public long getTransactionBatches() {
+        return transactionBatches.get();
+    }
+
+    public long getApplied() {
+        return applied.get();
+    }
+}
@@ -0,0 +1,63 @@
+package org.iota.ec.model;
+
+import org.json.JSONObject;
+
+/**
+ * Limits how many SubTangles a {@link TrustedEconomicActor} keeps in memory. Without such a limit, a single noisy or
+ * malicious actor could exhaust the heap by marking ever new Tangles.
+ * */
+public class RetentionPolicy {
+
+    public static final RetentionPolicy DEFAULT = new RetentionPolicy(10000, 0, 60 * 60 * 1000);
+
+    private final int maxSubTangles;
+    private final double minConfidence;
+    private final long supersededExpiry;
+
+    public static RetentionPolicy fromJSON(JSONObject json) {
+        int maxSubTangles = json.getInt("max_sub_tangles");
+        double minConfidence = json.getDouble("min_confidence");
+        long supersededExpiry = json.getLong("superseded_expiry");
+        return new RetentionPolicy(maxSubTangles, minConfidence, supersededExpiry);
+    }
+
+    /**
+     * @param maxSubTangles Maximum amount of SubTangles to keep. If exceeded, the SubTangles with the lowest confidence are evicted.
+     * @param minConfidence SubTangles marked with a lower confidence are evicted.
+     * @param supersededExpiry Milliseconds after which a SubTangle is evicted once a newer marker of the same actor has
+     *                         referenced it. Negative to never evict superseded SubTangles.
+     * */
+    public RetentionPolicy(int maxSubTangles, double minConfidence, long supersededExpiry) {
+        if(maxSubTangles < 1)
+            throw new IllegalArgumentException("'maxSubTangles' must be positive.");
+        if(minConfidence < 0 || minConfidence > 1)
+            throw new IllegalArgumentException("'minConfidence' must be within interval [0,1].");
+        this.maxSubTangles = maxSubTangles;
+        this.minConfidence = minConfidence;
+        this.supersededExpiry = supersededExpiry;
+    }
+
+    public int getMaxSubTangles() {
+        return maxSubTangles;
+    }
+
+    public double getMinConfidence() {
+        return minConfidence;
+    }
+
+    public long getSupersededExpiry() {
+        return supersededExpiry;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("max_sub_tangles", maxSubTangles);
+        json.put("min_confidence", minConfidence);
+        json.put("superseded_expiry", supersededExpiry);
+        return json;
+    }
+
+    boolean hasExpired(long supersededSince, long now) {
+        return supersededExpiry >= 0 && supersededSince >= 0 && now - supersededSince >= supersededExpiry;
+    }
+}
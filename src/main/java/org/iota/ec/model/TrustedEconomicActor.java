@@ -1,5 +1,7 @@
 package org.iota.ec.model;
 
+import org.iota.ec.util.HierarchicalMerkleTree;
+import org.iota.ict.ixi.Ixi;
 import org.iota.ict.model.bc.BalanceChange;
 import org.iota.ict.model.bundle.Bundle;
 import org.iota.ict.model.transaction.Transaction;
@@ -8,20 +10,51 @@ import org.iota.ict.utils.Trytes;
 import org.iota.ict.utils.crypto.MerkleTree;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Monitors an economic actor by following its markers. The passively-reading counter-part to {@link ControlledEconomicActor}.
+ *
+ * The SubTangles are only modified by the writer of the {@link MarkerPipeline}. A published SubTangle (and its sets) is
+ * never modified again, the writer replaces it with a modified copy and publishes a new immutable list. Readers on other
+ * threads therefore simply read the current list without locking.
  * */
 public class TrustedEconomicActor extends EconomicActor {
 
-    protected List<SubTangle> subTanglesOrderedByDescendingConfidence = new LinkedList<>();
+    static final int MAX_REJECTED_MARKER_HEADS = 1000;
+
+    protected volatile List<SubTangle> subTanglesOrderedByDescendingConfidence = Collections.emptyList();
     protected double trust;
+    protected volatile RetentionPolicy retentionPolicy = RetentionPolicy.DEFAULT;
+    // subtrees whose certificate has already been verified, by subtree address
+    protected final Map<String, Integer> certifiedSubTrees = new ConcurrentHashMap<>();
+    // heads of applied markers, which never have to be looked at again and are part of snapshots
+    protected final Set<String> processedMarkerHeads = ConcurrentHashMap.newKeySet();
+    // heads of recently rejected markers, bounded since anyone can issue invalid bundles on the actor's address
+    private final Set<String> rejectedMarkerHeads = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_REJECTED_MARKER_HEADS;
+        }
+    }));
 
     public TrustedEconomicActor(String address, double trust) {
         super(address);
         setTrust(trust);
     }
 
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+    }
+
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    public int getAmountOfSubTangles() {
+        return subTanglesOrderedByDescendingConfidence.size();
+    }
+
     public void setTrust(double trust) {
         if(trust < 0 || trust > 1)
             throw new IllegalArgumentException("'trust' must be within interval [0,1].");
@@ -36,6 +69,38 @@ public class TrustedEconomicActor extends EconomicActor {
         return 0;
     }
 
+    /**
+     * Combines {@link #getConfidence(String)} and {@link #hasReferenced(String)} in a single lookup.
+     * @return The confidence into the transaction or -1 if this actor has not referenced it.
+     * */
+    public double getConfidenceIfReferenced(String transactionHash) {
+        for(SubTangle subTangle : subTanglesOrderedByDescendingConfidence) {
+            if(subTangle.references(transactionHash))
+                return subTangle.getConfidence();
+        }
+        return -1;
+    }
+
+    /**
+     * Batch version of {@link #getConfidenceIfReferenced(String)} which walks the SubTangles only once.
+     * @param transactionHashes The transactions to look up.
+     * @param confidences Filled with the confidence into the transaction at the same position or -1 if not referenced.
+     * */
+    public void getConfidencesIfReferenced(String[] transactionHashes, double[] confidences) {
+        Arrays.fill(confidences, -1);
+        int unresolved = transactionHashes.length;
+        for(SubTangle subTangle : subTanglesOrderedByDescendingConfidence) {
+            if(unresolved == 0)
+                break;
+            for(int i = 0; i < transactionHashes.length; i++) {
+                if(confidences[i] < 0 && subTangle.references(transactionHashes[i])) {
+                    confidences[i] = subTangle.getConfidence();
+                    unresolved--;
+                }
+            }
+        }
+    }
+
     public boolean hasReferenced(String transactionHash) {
         for(SubTangle subTangle : subTanglesOrderedByDescendingConfidence) {
             if(subTangle.references(transactionHash))
@@ -48,32 +113,232 @@ public class TrustedEconomicActor extends EconomicActor {
         return trust;
     }
 
-    public void processTransaction(Transaction transaction) {
-        for(SubTangle subTangle : subTanglesOrderedByDescendingConfidence)
-            subTangle.processTransaction(transaction);
+    public boolean hasProcessedMarker(String bundleHead) {
+        return processedMarkerHeads.contains(bundleHead) || rejectedMarkerHeads.contains(bundleHead);
+    }
+
+    /**
+     * Records a bundle head whose verification failed, so that it is not verified again while syncing. Only the most
+     * recently rejected heads are remembered and none of them are part of snapshots.
+     * */
+    void markerRejected(String bundleHead) {
+        rejectedMarkerHeads.add(bundleHead);
+    }
+
+    /**
+     * @return Whether the transaction was missing in any SubTangle and has therefore changed the state of this actor.
+     * */
+    public boolean processTransaction(Transaction transaction) {
+        return processTransactions(Collections.singletonMap(transaction.hash, transaction));
+    }
+
+    /**
+     * Resolves transactions missing in the SubTangles. The SubTangles are only copied if any of the transactions is
+     * missing in them, and then at most once for the whole batch.
+     * @param transactionsByHash The transactions to resolve, by hash.
+     * @return Whether any transaction was missing and has therefore changed the state of this actor.
+     * */
+    public boolean processTransactions(Map<String, Transaction> transactionsByHash) {
+        List<SubTangle> subTangles = subTanglesOrderedByDescendingConfidence;
+        List<SubTangle> updated = null;
+        for(int i = 0; i < subTangles.size(); i++) {
+            List<Transaction> found = subTangles.get(i).findMissing(transactionsByHash);
+            if(found.isEmpty())
+                continue;
+            if(updated == null)
+                updated = new ArrayList<>(subTangles);
+            updated.set(i, subTangles.get(i).withMissingTransactionsFound(found));
+        }
+        if(updated != null)
+            publish(updated);
+        return updated != null;
+    }
+
+    /**
+     * Looks up the transactions missing in the SubTangles, e.g. because they were dropped before reaching
+     * {@link #processTransactions(Map)}. Does not modify this actor and can therefore be called from any thread.
+     * @return The missing transactions which are known by now, to be passed to {@link #processTransactions(Map)}.
+     * */
+    public Map<String, Transaction> findMissingTransactions(Ixi ixi) {
+        Map<String, Transaction> found = new HashMap<>();
+        Set<String> lookedUp = new HashSet<>();
+        for(SubTangle subTangle : subTanglesOrderedByDescendingConfidence) {
+            for(String hash : subTangle.missing) {
+                if(!lookedUp.add(hash))
+                    continue;
+                Transaction transaction = ixi.findTransactionByHash(hash);
+                if(transaction != null)
+                    found.put(hash, transaction);
+            }
+        }
+        return found;
     }
 
     public void processMarker(Bundle marker) {
+        int index = verifyMarker(marker);
+        if(index >= 0)
+            applyMarker(marker, index);
+    }
+
+    /**
+     * Checks whether a marker was signed by this actor. Does not touch the state of this actor and can therefore be called
+     * from any thread.
+     * @param marker The possible marker to verify.
+     * @return Index of the Merkle tree leaf with which the marker was signed or -1 if it was not validly signed by this actor.
+     * */
+    public int verifyMarker(Bundle marker) {
+        try {
+            if(new Transfer(marker).getOutputs().size() == 2)
+                return verifyHierarchicalMarker(marker);
+            MerkleTree.Signature markerSignature = getMarkerSignature(marker);
+            return markerSignature != null && address.equals(markerSignature.deriveAddress()) ? markerSignature.deriveIndex() : -1;
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    /**
+     * Verifies a marker signed with a {@link HierarchicalMerkleTree}: one output to this actor carrying the root tree's
+     * certificate of the subtree and one output to the subtree carrying the actual signature. Certificates are only
+     * verified once per subtree.
+     * @return The combined index or -1 if the marker was not validly signed by this actor.
+     * */
+    protected int verifyHierarchicalMarker(Bundle marker) {
+        BalanceChange rootOutput = null, subTreeOutput = null;
+        for(BalanceChange output : new Transfer(marker).getOutputs()) {
+            if(output.address.equals(address))
+                rootOutput = output;
+            else
+                subTreeOutput = output;
+        }
+        if(rootOutput == null || subTreeOutput == null)
+            return -1;
+
+        String messageToSign = messageToSign(marker.getTail().trunkHash(), marker.getTail().branchHash());
+        MerkleTree.Signature signature = parseSignature(subTreeOutput, messageToSign);
+        if(!subTreeOutput.address.equals(signature.deriveAddress()))
+            return -1;
+
+        Integer rootIndex = certifiedSubTrees.get(subTreeOutput.address);
+        if(rootIndex == null) {
+            MerkleTree.Signature certificate = parseSignature(rootOutput, HierarchicalMerkleTree.certificateMessage(subTreeOutput.address));
+            if(!address.equals(certificate.deriveAddress()))
+                return -1;
+            rootIndex = certificate.deriveIndex();
+            certifiedSubTrees.put(subTreeOutput.address, rootIndex);
+        }
+        return HierarchicalMerkleTree.combineIndex(rootIndex, signature.deriveIndex());
+    }
+
+    private static MerkleTree.Signature parseSignature(BalanceChange output, String signedMessage) {
+        String signatureTrytesConcatenatedWithMerklePath = output.getSignatureOrMessage().replace(Trytes.NULL_HASH, "");
+        return MerkleTree.Signature.fromTrytesConcatenatedWithMerklePath(signatureTrytesConcatenatedWithMerklePath, signedMessage);
+    }
+
+    /**
+     * Applies a marker whose signature has already been verified with {@link #verifyMarker(Bundle)}.
+     * @param marker The verified marker.
+     * @param index The index returned by {@link #verifyMarker(Bundle)}.
+     * */
+    public void applyMarker(Bundle marker, int index) {
+        processedMarkerHeads.add(marker.getHead().hash);
         try {
-            SubTangle existingSubTangle = findSubTangleDirectlyReferencedBy(marker.getTail());
-            if(existingSubTangle != null) {
-                existingSubTangle.update(marker);
+            List<SubTangle> subTangles = new ArrayList<>(subTanglesOrderedByDescendingConfidence);
+            int position = findSubTangleDirectlyReferencedBy(subTangles, marker.getTail());
+            SubTangle subTangle;
+            if(position >= 0) {
+                subTangle = subTangles.get(position).copy();
+                subTangle.update(marker, index);
+                subTangles.set(position, subTangle);
             } else {
-                subTanglesOrderedByDescendingConfidence.add(new SubTangle(marker));
+                subTangle = new SubTangle(marker, index);
+                subTangles.add(subTangle);
             }
-            Collections.sort(subTanglesOrderedByDescendingConfidence);
+            markSuperseded(subTangles, subTangle);
+            publish(subTangles);
         } catch (Throwable t) {
             t.printStackTrace();
         }
     }
 
-    private SubTangle findSubTangleDirectlyReferencedBy(Transaction transaction) {
-        for(SubTangle subTangle : subTanglesOrderedByDescendingConfidence) {
-            if(subTangle.isDirectlyReferencedBy(transaction)) {
-                return subTangle;
+    /**
+     * Adds SubTangles restored from an {@link ActorSnapshotStore}. Like {@link #applyMarker(Bundle, int)}, must only be
+     * called by the writer of the {@link MarkerPipeline}.
+     * */
+    void restoreSubTangles(Collection<SubTangle> restored) {
+        List<SubTangle> subTangles = new ArrayList<>(subTanglesOrderedByDescendingConfidence);
+        subTangles.addAll(restored);
+        publish(subTangles);
+    }
+
+    /**
+     * Sorts, applies the retention policy and replaces the published SubTangles.
+     * @param subTangles A private copy of the SubTangles which is not modified anymore afterwards.
+     * */
+    private void publish(List<SubTangle> subTangles) {
+        Collections.sort(subTangles);
+        enforceRetentionPolicy(subTangles);
+        subTanglesOrderedByDescendingConfidence = Collections.unmodifiableList(subTangles);
+    }
+
+    /**
+     * A SubTangle is superseded once a marker with a higher index references both of its referenced transactions.
+     * @param updated The SubTangle which has just been created or updated. Not published yet and can therefore be modified.
+     * */
+    private void markSuperseded(List<SubTangle> subTangles, SubTangle updated) {
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < subTangles.size(); i++) {
+            SubTangle other = subTangles.get(i);
+            if(other == updated)
+                continue;
+            if(other.supersededSince < 0 && other.index < updated.index && updated.referencesTangle(other)) {
+                other = other.copy();
+                other.supersededSince = now;
+                subTangles.set(i, other);
+            } else if(updated.supersededSince < 0 && updated.index < other.index && other.referencesTangle(updated)) {
+                updated.supersededSince = now;
             }
         }
-        return null;
+    }
+
+    /**
+     * Applies the retention policy without waiting for the next marker, so that superseded SubTangles also expire for
+     * actors which have stopped issuing markers. Must be called by the writer of the {@link MarkerPipeline}.
+     * @return Whether any SubTangle was evicted.
+     * */
+    boolean enforceRetentionPolicy() {
+        List<SubTangle> subTangles = new ArrayList<>(subTanglesOrderedByDescendingConfidence);
+        int amountBefore = subTangles.size();
+        enforceRetentionPolicy(subTangles);
+        if(subTangles.size() == amountBefore)
+            return false;
+        subTanglesOrderedByDescendingConfidence = Collections.unmodifiableList(subTangles);
+        return true;
+    }
+
+    private void enforceRetentionPolicy(List<SubTangle> subTangles) {
+        long now = System.currentTimeMillis();
+        Iterator<SubTangle> iterator = subTangles.iterator();
+        while (iterator.hasNext()) {
+            SubTangle subTangle = iterator.next();
+            if(subTangle.confidence < retentionPolicy.getMinConfidence() || retentionPolicy.hasExpired(subTangle.supersededSince, now))
+                iterator.remove();
+        }
+        // list is ordered by descending confidence, so the least confident SubTangles are at the end
+        while (subTangles.size() > retentionPolicy.getMaxSubTangles())
+            subTangles.remove(subTangles.size()-1);
+    }
+
+    /**
+     * @return Position of the SubTangle or -1 if there is none.
+     * */
+    private static int findSubTangleDirectlyReferencedBy(List<SubTangle> subTangles, Transaction transaction) {
+        for(int i = 0; i < subTangles.size(); i++) {
+            if(subTangles.get(i).isDirectlyReferencedBy(transaction)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public Map<String, Double> getMarkedTangles() {
@@ -92,28 +357,84 @@ public class TrustedEconomicActor extends EconomicActor {
         if(!output.address.equals(address))
             return null;
         String messageToSign = messageToSign(marker.getTail().trunkHash(), marker.getTail().branchHash());
-
-        String signatureTrytesConcatenatedWithMerklePath = output.getSignatureOrMessage().replace(Trytes.NULL_HASH, "");
-        return MerkleTree.Signature.fromTrytesConcatenatedWithMerklePath(signatureTrytesConcatenatedWithMerklePath, messageToSign);
+        return parseSignature(output, messageToSign);
     }
 
+    /**
+     * Must not be modified once published, see {@link #copy()} and {@link #withMissingTransactionsFound(Collection)}.
+     * */
     protected class SubTangle implements Comparable<SubTangle> {
 
         protected int index = -1;
         protected double confidence;
+        protected long supersededSince = -1;
         protected final String referencedTransaction1, referencedTransaction2;
-        protected final Set<String> referenced = new HashSet<>();
-        protected final Set<String> missing = new HashSet<>();
+        protected Set<String> referenced = new HashSet<>();
+        protected Set<String> missing = new HashSet<>();
 
-        protected SubTangle(Bundle marker) {
+        protected SubTangle(Bundle marker, int index) {
             Transaction tail = marker.getTail();
             referencedTransaction1 = tail.branchHash();
             referencedTransaction2 = tail.trunkHash();
-            update(marker);
+            update(marker, index);
             markAsApprovedRecursively(tail.getBranch());
             markAsApprovedRecursively(tail.getTrunk());
         }
 
+        /**
+         * Restores a SubTangle without walking its past cone. {@link #referenced} and {@link #missing} must be filled afterwards.
+         * */
+        protected SubTangle(String referencedTransaction1, String referencedTransaction2, int index, double confidence, long supersededSince) {
+            this.referencedTransaction1 = referencedTransaction1;
+            this.referencedTransaction2 = referencedTransaction2;
+            this.index = index;
+            this.confidence = confidence;
+            this.supersededSince = supersededSince;
+        }
+
+        /**
+         * @return A copy which can be modified, except for the sets which are shared with this SubTangle.
+         * */
+        protected SubTangle copy() {
+            SubTangle copy = new SubTangle(referencedTransaction1, referencedTransaction2, index, confidence, supersededSince);
+            copy.referenced = referenced;
+            copy.missing = missing;
+            return copy;
+        }
+
+        /**
+         * @return A copy in which the transactions are no longer missing. This SubTangle is not modified.
+         * */
+        protected SubTangle withMissingTransactionsFound(Collection<Transaction> missingTransactions) {
+            SubTangle copy = copy();
+            copy.referenced = new HashSet<>(referenced);
+            copy.missing = new HashSet<>(missing);
+            for(Transaction missingTransaction : missingTransactions)
+                copy.missingTransactionFound(missingTransaction);
+            return copy;
+        }
+
+        /**
+         * @return Those of the transactions which are missing in this SubTangle. Iterates over the smaller collection.
+         * */
+        protected List<Transaction> findMissing(Map<String, Transaction> transactionsByHash) {
+            if(missing.isEmpty())
+                return Collections.emptyList();
+            List<Transaction> found = new LinkedList<>();
+            if(missing.size() < transactionsByHash.size()) {
+                for(String hash : missing) {
+                    Transaction transaction = transactionsByHash.get(hash);
+                    if(transaction != null)
+                        found.add(transaction);
+                }
+            } else {
+                for(Transaction transaction : transactionsByHash.values())
+                    if(missing.contains(transaction.hash))
+                        found.add(transaction);
+            }
+            return found;
+        }
+
         protected int getIndex() {
             return index;
         }
@@ -122,19 +443,16 @@ public class TrustedEconomicActor extends EconomicActor {
             return confidence;
         }
 
-        protected void update(Bundle marker) {
+        protected void update(Bundle marker, int index) {
 
             Transaction tail = marker.getTail();
             if(!isDirectlyReferencedBy(tail))
                 throw new IllegalArgumentException("Marker does not belong this subtangle.");
 
-            MerkleTree.Signature markerSignature = getMarkerSignature(marker);
-            if(markerSignature == null || !address.equals(markerSignature.deriveAddress()))
-                throw new IllegalArgumentException("Marker signature is invalid.");
-
-            if(this.index < markerSignature.deriveIndex()) {
-                this.index = markerSignature.deriveIndex();
+            if(this.index < index) {
+                this.index = index;
                 this.confidence = decodeConfidence(tail.tag());
+                this.supersededSince = -1;
             }
         }
 
@@ -150,12 +468,14 @@ public class TrustedEconomicActor extends EconomicActor {
             return referenced.contains(transactionHash) || missing.contains(transactionHash);
         }
 
-        protected void processTransaction(Transaction transaction) {
-            if(missing.contains(transaction.hash))
-                missingTransactionFound(transaction);
+        protected boolean referencesTangle(SubTangle other) {
+            return references(other.referencedTransaction1) && references(other.referencedTransaction2);
         }
 
-        protected synchronized void missingTransactionFound(Transaction missingTransaction) {
+        /**
+         * Modifies this SubTangle, must not be called once it is published.
+         * */
+        protected void missingTransactionFound(Transaction missingTransaction) {
             missing.remove(missingTransaction.hash);
             if(referenced.add(missingTransaction.hash))
                 markAsApprovedRecursively(missingTransaction);
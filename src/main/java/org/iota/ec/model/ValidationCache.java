@@ -0,0 +1,63 @@
+package org.iota.ec.model;
+
+import org.iota.ict.model.transaction.Transaction;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Validation results which do not depend on the initial balances of a {@link LedgerValidator} and can therefore be
+ * shared by the validators of all autonomous actors: which transfers are valid or invalid, which are waiting for a
+ * missing dependency and the balance changes within a tangle. Only the initial balances remain per validator.
+ * Thread-safe.
+ * */
+public class ValidationCache {
+
+    static final int DEFAULT_MAX_DELTAS = 10000;
+
+    final Set<String> validTransfers = ConcurrentHashMap.newKeySet(), invalidTransfers = ConcurrentHashMap.newKeySet();
+    final Map<String, String> dependencyByTransfer = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, BigInteger>> deltaByRoot = new ConcurrentHashMap<>();
+    private final int maxDeltas;
+
+    public ValidationCache() {
+        this(DEFAULT_MAX_DELTAS);
+    }
+
+    /**
+     * @param maxDeltas Maximum amount of tangles whose balance changes are cached. The cache is cleared when exceeded.
+     * */
+    ValidationCache(int maxDeltas) {
+        if(maxDeltas < 1)
+            throw new IllegalArgumentException("'maxDeltas' must be positive.");
+        this.maxDeltas = maxDeltas;
+        validTransfers.add(Transaction.NULL_TRANSACTION.hash);
+    }
+
+    /**
+     * @return The sum of values per address of all transactions in the tangle below the root or {@code null} if not cached.
+     * */
+    Map<String, BigInteger> getDelta(String rootHash) {
+        return deltaByRoot.get(rootHash);
+    }
+
+    void putDelta(String rootHash, Map<String, BigInteger> delta) {
+        if(deltaByRoot.size() >= maxDeltas)
+            deltaByRoot.clear();
+        deltaByRoot.put(rootHash, delta);
+    }
+
+    public int amountOfValidTransfers() {
+        return validTransfers.size();
+    }
+
+    public int amountOfInvalidTransfers() {
+        return invalidTransfers.size();
+    }
+
+    public int amountOfDeltas() {
+        return deltaByRoot.size();
+    }
+}
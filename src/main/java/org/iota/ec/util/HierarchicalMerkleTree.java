@@ -0,0 +1,265 @@
+package org.iota.ec.util;
+
+import org.iota.ict.utils.Trytes;
+import org.iota.ict.utils.crypto.MerkleTree;
+import org.iota.ict.utils.crypto.SignatureSchemeImplementation;
+import org.json.JSONObject;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Two-level key scheme for actors issuing many markers. The root tree (which determines the address) does not sign
+ * markers directly but certifies subtrees, whose keys are only generated once the subtree is needed. A marker then
+ * carries the certificate of its subtree and the signature of the subtree. Startup cost and memory only depend on the
+ * size of the root tree and one subtree while the capacity is the product of both.
+ *
+ * The root tree itself is only generated when its address or a new certificate is needed and neither is available from
+ * an attached {@link MerkleTreeCache}.
+ *
+ * Indices are combined as {@code rootIndex << SUB_INDEX_BITS | subIndex} so that they keep increasing with every marker.
+ * Unlike a flat tree, it cannot issue a single signature, so it does not extend one. Markers are signed with
+ * {@link #signHierarchically(int, String)} instead.
+ * */
+public class HierarchicalMerkleTree implements IndexableMerkleTree {
+
+    public static final int SUB_INDEX_BITS = 20;
+    public static final int MAX_ROOT_DEPTH = 30 - SUB_INDEX_BITS;
+    private static final int CACHED_SUBTREES = 2;
+
+    private final String seed;
+    private final int securityLevel, rootDepth, subDepth;
+    private int index;
+    private IntConsumer indexListener;
+    private MerkleTree root;
+    private MerkleTreeCache cache;
+    private final Map<Integer, SubTree> subTrees = new LinkedHashMap<Integer, SubTree>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, SubTree> eldest) {
+            return size() > CACHED_SUBTREES;
+        }
+    };
+
+    public HierarchicalMerkleTree(String seed, int securityLevel, int rootDepth, int subDepth) {
+        this(seed, securityLevel, rootDepth, subDepth, 0);
+    }
+
+    public HierarchicalMerkleTree(String seed, int securityLevel, int rootDepth, int subDepth, int startIndex) {
+        if(rootDepth < 1 || rootDepth > MAX_ROOT_DEPTH)
+            throw new IllegalArgumentException("'rootDepth' must be within interval [1, " + MAX_ROOT_DEPTH + "].");
+        if(subDepth < 1 || subDepth > SUB_INDEX_BITS)
+            throw new IllegalArgumentException("'subDepth' must be within interval [1, " + SUB_INDEX_BITS + "].");
+        this.seed = seed;
+        this.securityLevel = securityLevel;
+        this.rootDepth = rootDepth;
+        this.subDepth = subDepth;
+        this.index = startIndex;
+    }
+
+    /**
+     * Uses the cache of this tree within the directory for the root address and subtree certificates from now on, and fills it.
+     * @param expectedAddress Address the tree is known to have, or {@code null}. A cache disagreeing with it is cleared.
+     *                        Without it, the cached address is only trusted if a cached certificate derives to it.
+     * */
+    public synchronized void attachCache(Path directory, String expectedAddress) {
+        MerkleTreeCache cache = MerkleTreeCache.open(directory, seed, securityLevel, rootDepth, subDepth);
+        String cachedAddress = cache.getAddress();
+        if(cachedAddress != null && !(expectedAddress != null ? cachedAddress.equals(expectedAddress) : isConfirmedByCertificate(cache)))
+            cache.clear();
+        this.cache = cache;
+        cache.storeAddress(getAddress());
+    }
+
+    private boolean isConfirmedByCertificate(MerkleTreeCache cache) {
+        for(int rootIndex = 0; rootIndex < 1 << rootDepth; rootIndex++) {
+            MerkleTreeCache.Certificate certificate = cache.getCertificate(rootIndex);
+            if(certificate != null)
+                return certifies(certificate, cache.getAddress());
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether the certificate is a valid signature of the tree with the address over the subtree address.
+     * */
+    private static boolean certifies(MerkleTreeCache.Certificate certificate, String address) {
+        try {
+            String message = certificateMessage(certificate.subTreeAddress);
+            return address.equals(MerkleTree.Signature.fromTrytesConcatenatedWithMerklePath(certificate.trytes, message).deriveAddress());
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized String getAddress() {
+        if(cache != null && cache.getAddress() != null)
+            return cache.getAddress();
+        return getRoot().getAddress();
+    }
+
+    @Override
+    public int getSecurityLevel() {
+        return securityLevel;
+    }
+
+    @Override
+    public int getDepth() {
+        return rootDepth;
+    }
+
+    @Override
+    public synchronized int getIndex() {
+        return index;
+    }
+
+    private synchronized MerkleTree getRoot() {
+        if(root == null)
+            root = new MerkleTree(seed, securityLevel, rootDepth);
+        return root;
+    }
+
+    /**
+     * @return The message the root tree signs to certify a subtree.
+     * */
+    public static String certificateMessage(String subTreeAddress) {
+        return SignatureSchemeImplementation.hash(subTreeAddress);
+    }
+
+    public static int combineIndex(int rootIndex, int subIndex) {
+        return rootIndex << SUB_INDEX_BITS | subIndex;
+    }
+
+    @Override
+    public int[] reserveIndexes(int amount) {
+        int[] reserved = new int[amount];
+        int reservedUntil;
+        IntConsumer listener;
+        synchronized (this) {
+            if(amount > getLeavesLeft())
+                throw new IllegalStateException("Only " + getLeavesLeft() + " of " + getCapacity() + " leaves of the merkle tree are left.");
+            for(int i = 0; i < amount; i++)
+                reserved[i] = nextIndex();
+            reservedUntil = index;
+            listener = indexListener;
+        }
+        if(listener != null && amount > 0)
+            listener.accept(reservedUntil);
+        return reserved;
+    }
+
+    private synchronized int nextIndex() {
+        int rootIndex = index >>> SUB_INDEX_BITS;
+        int subIndex = index & ((1 << SUB_INDEX_BITS) - 1);
+        if(subIndex >= 1 << subDepth) {
+            rootIndex++;
+            subIndex = 0;
+        }
+        if(rootIndex >= 1 << getDepth())
+            throw new IllegalStateException("All " + getCapacity() + " leaves of the merkle tree have been used.");
+        int reserved = combineIndex(rootIndex, subIndex);
+        index = reserved + 1;
+        return reserved;
+    }
+
+    @Override
+    public synchronized void setIndexListener(IntConsumer indexListener) {
+        this.indexListener = indexListener;
+    }
+
+    @Override
+    public synchronized void advanceIndex(int index) {
+        this.index = Math.max(this.index, index);
+    }
+
+    @Override
+    public synchronized int getLeavesLeft() {
+        int rootIndex = index >>> SUB_INDEX_BITS;
+        int subIndex = Math.min(index & ((1 << SUB_INDEX_BITS) - 1), 1 << subDepth);
+        return getCapacity() - (rootIndex << subDepth) - subIndex;
+    }
+
+    @Override
+    public int getCapacity() {
+        return (1 << getDepth()) << subDepth;
+    }
+
+    /**
+     * @param index A combined index reserved with {@link #reserveIndexes(int)}.
+     * */
+    public HierarchicalSignature signHierarchically(int index, String toSign) {
+        SubTree subTree = getSubTree(index >>> SUB_INDEX_BITS);
+        MerkleTree.Signature signature = subTree.tree.sign(index & ((1 << SUB_INDEX_BITS) - 1), toSign);
+        return new HierarchicalSignature(subTree.certificate, subTree.address, signature);
+    }
+
+    private synchronized SubTree getSubTree(int rootIndex) {
+        SubTree subTree = subTrees.get(rootIndex);
+        if(subTree == null) {
+            String subSeed = SignatureSchemeImplementation.hash(seed + Trytes.fromNumber(BigInteger.valueOf(rootIndex), 9));
+            MerkleTree tree = new MerkleTree(subSeed, securityLevel, subDepth);
+            subTree = new SubTree(tree, certify(rootIndex, tree.getAddress()));
+            subTrees.put(rootIndex, subTree);
+        }
+        return subTree;
+    }
+
+    private String certify(int rootIndex, String subTreeAddress) {
+        MerkleTreeCache.Certificate cached = cache == null ? null : cache.getCertificate(rootIndex);
+        if(cached != null && cached.subTreeAddress.equals(subTreeAddress)) {
+            if(certifies(cached, getAddress()))
+                return cached.trytes;
+            // corrupted, markers would be rejected by every verifier
+            cache.clear();
+            cache.storeAddress(getRoot().getAddress());
+        }
+        String certificate = getRoot().sign(rootIndex, certificateMessage(subTreeAddress)).toString();
+        if(cache != null)
+            cache.storeCertificate(rootIndex, subTreeAddress, certificate);
+        return certificate;
+    }
+
+    public int getSubDepth() {
+        return subDepth;
+    }
+
+    @Override
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("seed", seed);
+        json.put("index", index);
+        json.put("security_level", securityLevel);
+        json.put("depth", rootDepth);
+        json.put("sub_depth", subDepth);
+        return json;
+    }
+
+    private static class SubTree {
+        private final MerkleTree tree;
+        private final String address;
+        private final String certificate;
+
+        private SubTree(MerkleTree tree, String certificate) {
+            this.tree = tree;
+            this.address = tree.getAddress();
+            this.certificate = certificate;
+        }
+    }
+
+    public static class HierarchicalSignature {
+        /** Signature of the root tree over {@link #certificateMessage(String)} of the subtree address, with Merkle path. */
+        public final String certificate;
+        public final String subTreeAddress;
+        /** Signature of the subtree over the actual message. */
+        public final MerkleTree.Signature signature;
+
+        private HierarchicalSignature(String certificate, String subTreeAddress, MerkleTree.Signature signature) {
+            this.certificate = certificate;
+            this.subTreeAddress = subTreeAddress;
+            this.signature = signature;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.iota.ec.util;
+
+import org.json.JSONObject;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Signing key of a {@link org.iota.ec.model.ControlledEconomicActor} whose leaves are used in order. Implemented by the
+ * flat {@link SerializableAutoIndexableMerkleTree} and the {@link HierarchicalMerkleTree}, which sign differently.
+ * */
+public interface IndexableMerkleTree {
+
+    static IndexableMerkleTree fromJSON(JSONObject json) {
+        if(json.has("sub_depth"))
+            return new HierarchicalMerkleTree(json.getString("seed"), json.getInt("security_level"), json.getInt("depth"), json.getInt("sub_depth"), json.getInt("index"));
+        return SerializableAutoIndexableMerkleTree.fromJSON(json);
+    }
+
+    String getAddress();
+
+    int getSecurityLevel();
+
+    int getDepth();
+
+    /**
+     * @return Index of the next unused leaf.
+     * */
+    int getIndex();
+
+    /**
+     * Reserves the next unused leaves. Thread-safe, so that the leaves can be signed with in parallel afterwards. The
+     * index listener is called once for the whole batch, after the tree has been unlocked again, so that other threads
+     * can reserve leaves while the new index is persisted.
+     * @param amount Amount of leaves to reserve.
+     * @return Indexes of the reserved leaves, in ascending order.
+     * @throws IllegalStateException If fewer leaves are left. No leaf is reserved then.
+     * */
+    int[] reserveIndexes(int amount);
+
+    /**
+     * Like {@link #reserveIndexes(int)} for a single leaf.
+     * */
+    default int reserveIndex() {
+        return reserveIndexes(1)[0];
+    }
+
+    /**
+     * Skips all leaves before the index. Has no effect if they are already used.
+     * */
+    void advanceIndex(int index);
+
+    int getLeavesLeft();
+
+    /**
+     * @return Maximum amount of markers which can be signed.
+     * */
+    int getCapacity();
+
+    /**
+     * @param indexListener Called with the new index whenever leaves are reserved, before they are signed with. Calls
+     *                      of concurrent reservations can arrive out of order.
+     * */
+    void setIndexListener(IntConsumer indexListener);
+
+    JSONObject toJSON();
+}
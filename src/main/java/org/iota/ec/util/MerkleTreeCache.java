@@ -0,0 +1,155 @@
+package org.iota.ec.util;
+
+import org.iota.ict.utils.Trytes;
+import org.iota.ict.utils.crypto.SignatureSchemeImplementation;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of everything a {@link HierarchicalMerkleTree} needs from its root tree: the address and the
+ * certificates of subtrees. With a warm cache, the root tree does not have to be generated at all after a restart, only
+ * the subtree currently in use. One append-only file per tree, read sequentially when loaded. A truncated or corrupt
+ * tail (e.g. after a crash) is cut off, a corrupt header discards the whole cache so that it is rebuilt.
+ * */
+public class MerkleTreeCache {
+
+    private static final int MAGIC = 0x45434D54;
+    private static final int ADDRESS_LENGTH = 81;
+    private static final int HEADER_LENGTH = 4 + ADDRESS_LENGTH;
+    // root index, subtree address and certificate length
+    private static final int ENTRY_HEADER_LENGTH = 4 + ADDRESS_LENGTH + 4;
+
+    private final Path file;
+    private volatile String address;
+    private final Map<Integer, Certificate> certificates = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory Directory containing all cache files.
+     * @return The cache for the tree with the given parameters, loaded from disk if it exists.
+     * */
+    public static MerkleTreeCache open(Path directory, String seed, int securityLevel, int rootDepth, int subDepth) {
+        String parameters = Trytes.fromNumber(BigInteger.valueOf(securityLevel), 3) + Trytes.fromNumber(BigInteger.valueOf(rootDepth), 3) + Trytes.fromNumber(BigInteger.valueOf(subDepth), 3);
+        String key = SignatureSchemeImplementation.hash(seed + parameters).substring(0, 27);
+        MerkleTreeCache cache = new MerkleTreeCache(directory.resolve(key + ".bin"));
+        try {
+            cache.load();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            cache.clear();
+        }
+        return cache;
+    }
+
+    private MerkleTreeCache(Path file) {
+        this.file = file;
+    }
+
+    private void load() throws IOException {
+        if(!Files.exists(file))
+            return;
+        long size = Files.size(file);
+        long intact = HEADER_LENGTH;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(size < HEADER_LENGTH || in.readInt() != MAGIC)
+                throw new IOException("Not a merkle tree cache: " + file);
+            address = readTrytes(in, ADDRESS_LENGTH);
+            while (size - intact >= ENTRY_HEADER_LENGTH) {
+                int rootIndex = in.readInt();
+                String subTreeAddress = readTrytes(in, ADDRESS_LENGTH);
+                int length = in.readInt();
+                if(rootIndex < 0 || length < 0 || length > size - intact - ENTRY_HEADER_LENGTH)
+                    break;
+                certificates.put(rootIndex, new Certificate(subTreeAddress, readTrytes(in, length)));
+                intact += ENTRY_HEADER_LENGTH + length;
+            }
+        }
+        if(intact < size) {
+            // cut off the corrupt tail, otherwise entries appended from now on could not be read
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(intact);
+            }
+        }
+    }
+
+    private static String readTrytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return The cached address of the root tree or {@code null} if unknown.
+     * */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return The cached certificate of a subtree or {@code null} if unknown.
+     * */
+    public Certificate getCertificate(int rootIndex) {
+        return certificates.get(rootIndex);
+    }
+
+    public synchronized void storeAddress(String address) {
+        if(address.equals(this.address))
+            return;
+        clear();
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.write(address.getBytes(StandardCharsets.US_ASCII));
+            }
+            this.address = address;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized void storeCertificate(int rootIndex, String subTreeAddress, String certificate) {
+        certificates.put(rootIndex, new Certificate(subTreeAddress, certificate));
+        if(address == null)
+            return;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)))) {
+            out.writeInt(rootIndex);
+            out.write(subTreeAddress.getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(certificate.length());
+            out.write(certificate.getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forgets all cached data, in memory and on disk.
+     * */
+    public synchronized void clear() {
+        address = null;
+        certificates.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static class Certificate {
+        public final String subTreeAddress;
+        /** Signature of the root tree over {@link HierarchicalMerkleTree#certificateMessage(String)}, concatenated with its Merkle path. */
+        public final String trytes;
+
+        private Certificate(String subTreeAddress, String trytes) {
+            this.subTreeAddress = subTreeAddress;
+            this.trytes = trytes;
+        }
+    }
+}
@@ -4,10 +4,12 @@ import org.iota.ict.utils.crypto.AutoIndexedMerkleTree;
 import org.json.JSONObject;
 
 import java.io.Serializable;
+import java.util.function.IntConsumer;
 
-public class SerializableAutoIndexableMerkleTree extends AutoIndexedMerkleTree {
+public class SerializableAutoIndexableMerkleTree extends AutoIndexedMerkleTree implements IndexableMerkleTree {
 
     private final String seed;
+    private IntConsumer indexListener;
 
     public static SerializableAutoIndexableMerkleTree fromJSON(JSONObject json) {
         String seed = json.getString("seed");
@@ -27,7 +29,54 @@ public class SerializableAutoIndexableMerkleTree extends AutoIndexedMerkleTree {
         this.seed = seed;
     }
 
-    public JSONObject toJSON() {
+    /**
+     * Reserves the next unused leaves, which can then be signed with via {@link #sign(int, String)}.
+     * */
+    @Override
+    public int[] reserveIndexes(int amount) {
+        int[] reserved = new int[amount];
+        int reservedUntil;
+        IntConsumer listener;
+        synchronized (this) {
+            if(amount > getLeavesLeft())
+                throw new IllegalStateException("Only " + getLeavesLeft() + " of " + getCapacity() + " leaves of the merkle tree are left.");
+            for(int i = 0; i < amount; i++)
+                reserved[i] = index++;
+            reservedUntil = index;
+            listener = indexListener;
+        }
+        if(listener != null && amount > 0)
+            listener.accept(reservedUntil);
+        return reserved;
+    }
+
+    @Override
+    public synchronized void setIndexListener(IntConsumer indexListener) {
+        this.indexListener = indexListener;
+    }
+
+    @Override
+    public synchronized void advanceIndex(int index) {
+        this.index = Math.max(this.index, index);
+    }
+
+    @Override
+    public synchronized int getLeavesLeft() {
+        return getCapacity() - index;
+    }
+
+    @Override
+    public int getCapacity() {
+        return 1 << getDepth();
+    }
+
+    @Override
+    public Signature sign(String toSign) {
+        return sign(reserveIndex(), toSign);
+    }
+
+    @Override
+    public synchronized JSONObject toJSON() {
         JSONObject json = new JSONObject();
         json.put("seed", seed);
         json.put("index", index);
@@ -0,0 +1,110 @@
+package org.iota.ec;
+
+import org.iota.ec.model.AutonomousEconomicActor;
+import org.iota.ec.model.EconomicCluster;
+import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
+import org.iota.ict.Ict;
+import org.iota.ict.utils.Trytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ActorTickSchedulerTest extends IctTestTemplate {
+
+    private Ict ict;
+    private EconomicCluster cluster;
+    private ActorTickScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        ict = createIct();
+        cluster = new EconomicCluster(ict);
+    }
+
+    @After
+    public void terminateScheduler() {
+        if(scheduler != null)
+            scheduler.terminate();
+        cluster.terminate();
+    }
+
+    @Test
+    public void testSkipsActorsWhileClusterIsUnchanged() {
+        CountingActor actor = new CountingActor(0, false);
+        scheduler = new ActorTickScheduler(cluster, () -> Collections.singleton(actor), 20, 1);
+        scheduler.start();
+
+        saveSleep(200);
+        Assert.assertEquals("Actor ticked although the cluster did not change.", 1, actor.ticks.get());
+        Assert.assertTrue("No tick was skipped.", scheduler.getSkipped() > 0);
+
+        changeClusterState();
+        saveSleep(200);
+        Assert.assertEquals("Actor did not tick after the cluster changed.", 2, actor.ticks.get());
+    }
+
+    @Test
+    public void testBacksOffWhenRoundsTakeTooLong() {
+        CountingActor actor = new CountingActor(100, true);
+        scheduler = new ActorTickScheduler(cluster, () -> Collections.singleton(actor), 20, 1);
+        scheduler.start();
+
+        saveSleep(500);
+        Assert.assertTrue("Period was not extended.", scheduler.getPeriod() > 20);
+        Assert.assertTrue("Period exceeds the maximum back off.", scheduler.getPeriod() <= 20 * ActorTickScheduler.MAX_BACKOFF_FACTOR);
+
+        scheduler.setInterval(20);
+        Assert.assertEquals("Back off was not reset with the interval.", 20, scheduler.getPeriod());
+    }
+
+    @Test
+    public void testPausesWithoutPositiveInterval() {
+        CountingActor actor = new CountingActor(0, true);
+        scheduler = new ActorTickScheduler(cluster, () -> Collections.singleton(actor), 20, 1);
+        scheduler.start();
+        saveSleep(100);
+
+        scheduler.setInterval(0);
+        saveSleep(50);
+        long rounds = scheduler.getRounds();
+        saveSleep(100);
+        Assert.assertTrue("Scheduler did not tick before pausing.", rounds > 0);
+        Assert.assertEquals("Scheduler kept ticking while paused.", rounds, scheduler.getRounds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyPool() {
+        new ActorTickScheduler(cluster, Collections::emptySet, 20, 0);
+    }
+
+    private void changeClusterState() {
+        cluster.setSampling(cluster.getSamplingThreshold(), cluster.getSamples());
+    }
+
+    private class CountingActor extends AutonomousEconomicActor {
+        private final AtomicInteger ticks = new AtomicInteger();
+        private final long tickDuration;
+        private final boolean changesCluster;
+
+        private CountingActor(long tickDuration, boolean changesCluster) {
+            super(ict, cluster, new HashMap<>(), new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3, 3));
+            this.tickDuration = tickDuration;
+            this.changesCluster = changesCluster;
+        }
+
+        @Override
+        public void tick(EconomicCluster.View view, Collection<String> newTangles) {
+            ticks.incrementAndGet();
+            saveSleep(tickDuration);
+            // lets the next round tick again
+            if(changesCluster)
+                changeClusterState();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.iota.ec;
+
+import org.iota.ict.utils.Trytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+
+public class ConfidenceIndexTest {
+
+    private final ConfidenceIndex index = new ConfidenceIndex();
+
+    @Test
+    public void testFindByConfidence() {
+        ConfidenceMonitor.TrackedTransaction low = track(0.2);
+        ConfidenceMonitor.TrackedTransaction high = track(0.9);
+        track(0.5);
+
+        List<ConfidenceIndex.Entry> entries = index.findByConfidence(0.4, 1, 0, 10);
+        Assert.assertEquals("Unexpected amount of entries in range.", 2, entries.size());
+        Assert.assertEquals("Entries are not ordered by descending confidence.", high.hash, entries.get(0).hash);
+
+        Assert.assertEquals("Offset was not applied.", 1, index.findByConfidence(0.4, 1, 1, 10).size());
+        Assert.assertEquals("Limit was not applied.", 1, index.findByConfidence(0, 1, 0, 1).size());
+
+        index.onConfidenceChanged(low, 0.2, 0.95);
+        Assert.assertEquals("Changed confidence was not reindexed.", low.hash, index.findByConfidence(0, 1, 0, 1).get(0).hash);
+        Assert.assertEquals("Transaction was indexed twice.", 3, index.size());
+    }
+
+    @Test
+    public void testFindChangedSince() {
+        ConfidenceMonitor.TrackedTransaction first = track(0.2);
+        ConfidenceMonitor.TrackedTransaction second = track(0.3);
+        long cursor = index.findChangedSince(0, 10).get(1).change;
+
+        Assert.assertEquals("Nothing changed since the cursor.", 0, index.findChangedSince(cursor, 10).size());
+        index.onConfidenceChanged(first, 0.2, 0.4);
+        List<ConfidenceIndex.Entry> changed = index.findChangedSince(cursor, 10);
+        Assert.assertEquals("Unexpected amount of changes since the cursor.", 1, changed.size());
+        Assert.assertEquals("Wrong transaction reported as changed.", first.hash, changed.get(0).hash);
+        Assert.assertNotEquals("Unchanged transaction reported as changed.", second.hash, changed.get(0).hash);
+    }
+
+    @Test
+    public void testEvictsFinalizedTransactions() {
+        ConfidenceMonitor.TrackedTransaction finalized = track(0.99);
+        ConfidenceMonitor.TrackedTransaction pending = track(0.5);
+        index.onFinalized(finalized);
+
+        index.evictFinalized(60 * 1000);
+        Assert.assertEquals("Finalized transaction was evicted before its retention passed.", 2, index.size());
+
+        index.evictFinalized(0);
+        Assert.assertEquals("Finalized transaction was not evicted.", 1, index.size());
+        Assert.assertEquals("Transaction which is not final was evicted.", pending.hash, index.findByConfidence(0, 1, 0, 10).get(0).hash);
+    }
+
+    @Test
+    public void testRemovesUntrackedTransactions() {
+        ConfidenceMonitor.TrackedTransaction transaction = track(0.5);
+        index.onUntracked(transaction);
+        Assert.assertEquals("Untracked transaction is still indexed.", 0, index.size());
+        Assert.assertEquals("Untracked transaction is still in the change feed.", 0, index.findChangedSince(0, 10).size());
+    }
+
+    private ConfidenceMonitor.TrackedTransaction track(double confidence) {
+        ConfidenceMonitor.TrackedTransaction transaction = new ConfidenceMonitor.TrackedTransaction(Trytes.randomSequenceOfLength(81), Trytes.randomSequenceOfLength(81), BigInteger.ONE);
+        index.onTracked(transaction);
+        index.onConfidenceChanged(transaction, 0, confidence);
+        return transaction;
+    }
+}
@@ -0,0 +1,84 @@
+package org.iota.ec;
+
+import org.iota.ec.model.EconomicCluster;
+import org.iota.ict.Ict;
+import org.iota.ict.model.transaction.Transaction;
+import org.iota.ict.model.transaction.TransactionBuilder;
+import org.iota.ict.utils.Trytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+public class ConfidenceMonitorTest extends IctTestTemplate {
+
+    private Ict ict;
+    private EconomicCluster cluster;
+    private ConfidenceMonitor monitor;
+
+    @Before
+    public void setUp() {
+        ict = createIct();
+        cluster = new EconomicCluster(ict);
+        monitor = new ConfidenceMonitor(ict, cluster, new FinalityTracker(0.95, 1000));
+        ict.addListener(monitor);
+    }
+
+    @After
+    public void terminateCluster() {
+        cluster.terminate();
+    }
+
+    @Test
+    public void testTracksValueTransactionsFromGossip() {
+        Transaction value = submitTransaction(Trytes.randomSequenceOfLength(81), BigInteger.ONE);
+        Transaction zero = submitTransaction(Trytes.randomSequenceOfLength(81), BigInteger.ZERO);
+
+        Assert.assertNotNull("Value transaction received via gossip is not tracked.", monitor.getTracked(value.hash));
+        Assert.assertNull("Zero-value transaction was tracked without a request.", monitor.getTracked(zero.hash));
+    }
+
+    @Test
+    public void testTracksAwaitedTransactionOnArrival() {
+        Transaction transaction = new TransactionBuilder().build();
+        monitor.requestTransaction(transaction.hash);
+        Assert.assertNull("Unknown transaction is tracked.", monitor.getTracked(transaction.hash));
+
+        ict.submit(transaction);
+        saveSleep(50);
+        Assert.assertNotNull("Requested transaction was not tracked on arrival.", monitor.getTracked(transaction.hash));
+
+        monitor.releaseTransaction(transaction.hash);
+        Assert.assertEquals("Released transaction is still tracked.", 0, monitor.amountTracked());
+    }
+
+    @Test
+    public void testExpiresUnrequiredTransactions() {
+        Transaction expiring = submitTransaction(Trytes.randomSequenceOfLength(81), BigInteger.ONE);
+        Transaction requested = submitTransaction(Trytes.randomSequenceOfLength(81), BigInteger.ONE);
+        Transaction onTrackedAddress = submitTransaction(Trytes.randomSequenceOfLength(81), BigInteger.ONE);
+        monitor.requestTransaction(requested.hash);
+        monitor.trackAddress(onTrackedAddress.address());
+
+        monitor.setTimeToLive(0);
+        saveSleep(10);
+        monitor.refresh();
+
+        Assert.assertNull("Transaction did not expire.", monitor.getTracked(expiring.hash));
+        Assert.assertEquals("Unexpected amount of expired transactions.", 1, monitor.amountExpired());
+        Assert.assertNotNull("Requested transaction expired.", monitor.getTracked(requested.hash));
+        Assert.assertNotNull("Transaction on tracked address expired.", monitor.getTracked(onTrackedAddress.hash));
+    }
+
+    private Transaction submitTransaction(String address, BigInteger value) {
+        TransactionBuilder builder = new TransactionBuilder();
+        builder.address = address;
+        builder.value = value;
+        Transaction transaction = builder.build();
+        ict.submit(transaction);
+        saveSleep(50);
+        return transaction;
+    }
+}
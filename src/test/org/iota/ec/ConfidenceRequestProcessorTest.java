@@ -0,0 +1,58 @@
+package org.iota.ec;
+
+import org.iota.ec.model.ControlledEconomicActor;
+import org.iota.ec.model.EconomicCluster;
+import org.iota.ec.model.TrustedEconomicActor;
+import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
+import org.iota.ict.Ict;
+import org.iota.ict.model.transaction.Transaction;
+import org.iota.ict.model.transaction.TransactionBuilder;
+import org.iota.ict.utils.Trytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class ConfidenceRequestProcessorTest extends IctTestTemplate {
+
+    private EconomicCluster cluster;
+
+    @After
+    public void terminateCluster() {
+        if(cluster != null)
+            cluster.terminate();
+    }
+
+    @Test
+    public void testAnswersEveryArgumentOfBatch() {
+        Ict ict = createIct();
+        cluster = new EconomicCluster(ict);
+        ControlledEconomicActor actor = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3, 3));
+        cluster.addActor(new TrustedEconomicActor(actor.getAddress(), 1), false);
+
+        Transaction referenced = new TransactionBuilder().build();
+        ict.submit(referenced);
+        for(Transaction markerTransaction : actor.buildMarker(referenced.hash, referenced.hash, 1).getTransactions())
+            ict.submit(markerTransaction);
+        waitUntilCommunicationEnds(100);
+        saveSleep(100);
+
+        ConfidenceRequestProcessor processor = new ConfidenceRequestProcessor(ict, cluster, new LinkedBlockingQueue<>(), 1);
+        String unreferenced = Trytes.randomSequenceOfLength(81);
+        String[] responses = processor.determineResponses(Arrays.asList(referenced.hash, unreferenced, referenced.hash));
+        processor.terminate();
+
+        Assert.assertEquals("Not every argument was answered.", 3, responses.length);
+        Assert.assertEquals("Unexpected confidence of referenced transaction.", 1, Double.parseDouble(responses[0]), 1E-3);
+        Assert.assertEquals("Unexpected confidence of unreferenced transaction.", 0, Double.parseDouble(responses[1]), 1E-9);
+        Assert.assertEquals("Duplicate argument was answered differently.", responses[0], responses[2]);
+        Assert.assertEquals("Duplicate argument was not merged.", 1, processor.getDeduplicated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyWorkerPool() {
+        new ConfidenceRequestProcessor(createIct(), null, new LinkedBlockingQueue<>(), 0);
+    }
+}
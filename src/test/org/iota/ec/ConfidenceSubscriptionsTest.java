@@ -0,0 +1,86 @@
+package org.iota.ec;
+
+import org.iota.ec.model.EconomicCluster;
+import org.iota.ict.Ict;
+import org.iota.ict.model.transaction.Transaction;
+import org.iota.ict.model.transaction.TransactionBuilder;
+import org.iota.ict.utils.Trytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collections;
+
+public class ConfidenceSubscriptionsTest extends IctTestTemplate {
+
+    private final double[] thresholds = new double[] {0.5};
+    private Ict ict;
+    private EconomicCluster cluster;
+    private ConfidenceMonitor monitor;
+    private ConfidenceSubscriptions subscriptions;
+
+    @Before
+    public void setUp() {
+        ict = createIct();
+        cluster = new EconomicCluster(ict);
+        monitor = new ConfidenceMonitor(ict, cluster, new FinalityTracker(0.95, 1000));
+        subscriptions = new ConfidenceSubscriptions(ict, monitor);
+        monitor.addListener(subscriptions);
+    }
+
+    @After
+    public void terminateCluster() {
+        cluster.terminate();
+    }
+
+    @Test
+    public void testUnsubscribeReleasesTransaction() {
+        String hash = submitTransaction(Trytes.randomSequenceOfLength(81), BigInteger.ZERO);
+
+        long first = subscriptions.subscribe(Collections.singleton(hash), Collections.emptySet(), Collections.emptySet(), thresholds, 0).id;
+        long second = subscriptions.subscribe(Collections.singleton(hash), Collections.emptySet(), Collections.emptySet(), thresholds, 0).id;
+        Assert.assertNotNull("Subscribed transaction is not tracked.", monitor.getTracked(hash));
+
+        subscriptions.unsubscribe(first);
+        Assert.assertNotNull("Transaction was untracked although a subscription still watches it.", monitor.getTracked(hash));
+
+        subscriptions.unsubscribe(second);
+        Assert.assertNull("Transaction is still tracked after the last subscription was removed.", monitor.getTracked(hash));
+        Assert.assertEquals(0, monitor.amountTracked());
+    }
+
+    @Test
+    public void testUnsubscribeReleasesAddress() {
+        String address = Trytes.randomSequenceOfLength(81);
+        String hash = submitTransaction(address, BigInteger.ONE);
+
+        long id = subscriptions.subscribe(Collections.emptySet(), Collections.singleton(address), Collections.emptySet(), thresholds, 0).id;
+        Assert.assertEquals("Value transaction on subscribed address is not tracked.", 1, monitor.getTrackedOnAddress(address).size());
+
+        subscriptions.unsubscribe(id);
+        Assert.assertNull("Transaction is still tracked after its address was released.", monitor.getTracked(hash));
+    }
+
+    @Test
+    public void testQueriedAddressOutlivesSubscription() {
+        String address = Trytes.randomSequenceOfLength(81);
+        String hash = submitTransaction(address, BigInteger.ONE);
+
+        monitor.trackAddress(address);
+        long id = subscriptions.subscribe(Collections.emptySet(), Collections.singleton(address), Collections.emptySet(), thresholds, 0).id;
+        subscriptions.unsubscribe(id);
+        Assert.assertNotNull("Transaction on queried address was untracked by a subscription.", monitor.getTracked(hash));
+    }
+
+    private String submitTransaction(String address, BigInteger value) {
+        TransactionBuilder builder = new TransactionBuilder();
+        builder.address = address;
+        builder.value = value;
+        Transaction transaction = builder.build();
+        ict.submit(transaction);
+        saveSleep(50);
+        return transaction.hash;
+    }
+}
@@ -0,0 +1,42 @@
+package org.iota.ec;
+
+import org.iota.ict.utils.Trytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+public class ConfirmedBalanceLedgerTest {
+
+    private final ConfirmedBalanceLedger ledger = new ConfirmedBalanceLedger(0.9);
+    private final String address = Trytes.randomSequenceOfLength(81);
+
+    @Test
+    public void testAppliesTransactionsCrossingThreshold() {
+        ConfidenceMonitor.TrackedTransaction deposit = transaction(BigInteger.valueOf(5));
+        ConfidenceMonitor.TrackedTransaction withdrawal = transaction(BigInteger.valueOf(-2));
+
+        ledger.onConfidenceChanged(deposit, 0, 0.5);
+        Assert.assertEquals("Unconfirmed transaction was applied.", BigInteger.ZERO, ledger.getConfirmedBalance(address));
+
+        ledger.onConfidenceChanged(deposit, 0.5, 0.95);
+        ledger.onConfidenceChanged(withdrawal, 0, 0.95);
+        Assert.assertEquals("Confirmed transactions were not applied.", BigInteger.valueOf(3), ledger.getConfirmedBalance(address));
+
+        ledger.onConfidenceChanged(deposit, 0.95, 0.99);
+        Assert.assertEquals("Transaction staying confirmed was applied twice.", BigInteger.valueOf(3), ledger.getConfirmedBalance(address));
+    }
+
+    @Test
+    public void testRevertsTransactionsDroppingBelowThreshold() {
+        ConfidenceMonitor.TrackedTransaction deposit = transaction(BigInteger.valueOf(5));
+
+        ledger.onConfidenceChanged(deposit, 0, 0.95);
+        ledger.onConfidenceChanged(deposit, 0.95, 0.9);
+        Assert.assertEquals("Transaction at the threshold was not reverted.", BigInteger.ZERO, ledger.getConfirmedBalance(address));
+    }
+
+    private ConfidenceMonitor.TrackedTransaction transaction(BigInteger value) {
+        return new ConfidenceMonitor.TrackedTransaction(Trytes.randomSequenceOfLength(81), address, value);
+    }
+}
@@ -0,0 +1,50 @@
+package org.iota.ec;
+
+import org.iota.ict.utils.Trytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FinalityTrackerTest {
+
+    private final String hash = Trytes.randomSequenceOfLength(81);
+
+    @Test
+    public void testFinalizesAfterStabilityWindow() throws InterruptedException {
+        FinalityTracker tracker = new FinalityTracker(0.9, 100);
+
+        Assert.assertFalse("Transaction was finalized immediately.", tracker.observe(hash, 0.95));
+        Assert.assertTrue("Transaction above the threshold is not pending.", tracker.isPending(hash));
+
+        Thread.sleep(150);
+        Assert.assertTrue("Transaction was not finalized after the stability window.", tracker.observe(hash, 0.95));
+        Assert.assertTrue("Transaction is not reported as finalized.", tracker.isFinalized(hash));
+        Assert.assertEquals("Finalized transaction is still pending.", 0, tracker.amountPending());
+
+        Assert.assertTrue("Finalized transaction was reverted.", tracker.observe(hash, 0));
+        Assert.assertEquals("Unexpected amount of finalized transactions.", 1, tracker.amountFinalized());
+    }
+
+    @Test
+    public void testDropBelowThresholdResetsWindow() throws InterruptedException {
+        FinalityTracker tracker = new FinalityTracker(0.9, 100);
+
+        tracker.observe(hash, 0.95);
+        Thread.sleep(150);
+        Assert.assertFalse("Transaction at the threshold was finalized.", tracker.observe(hash, 0.9));
+        Assert.assertFalse("Transaction below the threshold is still pending.", tracker.isPending(hash));
+
+        Assert.assertFalse("Stability window was not restarted.", tracker.observe(hash, 0.95));
+        Assert.assertFalse("Transaction was finalized without a stable confidence.", tracker.isFinalized(hash));
+    }
+
+    @Test
+    public void testZeroWindowFinalizesImmediately() {
+        FinalityTracker tracker = new FinalityTracker(0.9, 0);
+        Assert.assertTrue("Transaction was not finalized without a stability window.", tracker.observe(hash, 0.95));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNegativeWindow() {
+        new FinalityTracker(0.9, -1);
+    }
+}
@@ -0,0 +1,82 @@
+package org.iota.ec;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JournalTest {
+
+    @Test
+    public void testTruncatedLastLine() throws IOException {
+        Path path = Files.createTempDirectory("ec_journal").resolve("persistence.journal");
+        Journal journal = new Journal(path, Journal.DEFAULT_COMPACTION_THRESHOLD, () -> {});
+        journal.open();
+        journal.append("test", entry(1));
+        journal.append("test", entry(2));
+        journal.close();
+
+        // crash while appending
+        Files.write(path, "{\"op\":\"te".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Assert.assertEquals("Truncated line was not skipped.", Arrays.asList(1, 2), numbers(journal.readAll()));
+
+        journal.open();
+        journal.append("test", entry(3));
+        journal.close();
+        Assert.assertEquals("Entry appended after truncated line was lost.", Arrays.asList(1, 2, 3), numbers(journal.readAll()));
+    }
+
+    @Test
+    public void testRotationAfterFailedCompaction() throws IOException {
+        Path path = Files.createTempDirectory("ec_journal").resolve("persistence.journal");
+        Journal journal = new Journal(path, Journal.DEFAULT_COMPACTION_THRESHOLD, () -> {});
+        journal.open();
+        journal.append("test", entry(1));
+        journal.rotate();
+        journal.append("test", entry(2));
+
+        // the first compaction failed and did not discard the rotated journal
+        journal.rotate();
+        journal.append("test", entry(3));
+        Assert.assertEquals("Entries of failed compaction were lost.", Arrays.asList(1, 2, 3), numbers(journal.readAll()));
+
+        journal.discardRotated();
+        Assert.assertEquals("Rotated entries were not discarded.", Arrays.asList(3), numbers(journal.readAll()));
+        journal.close();
+    }
+
+    @Test
+    public void testCompactionRequested() throws IOException {
+        AtomicInteger requestedCompactions = new AtomicInteger();
+        Journal journal = new Journal(Files.createTempDirectory("ec_journal").resolve("persistence.journal"), 2, requestedCompactions::incrementAndGet);
+
+        // not recording yet
+        journal.append("test", entry(0));
+        journal.open();
+        for(int i = 1; i <= 5; i++)
+            journal.append("test", entry(i));
+        journal.close();
+        Assert.assertEquals("Unexpected amount of compaction requests.", 2, requestedCompactions.get());
+        Assert.assertEquals("Unexpected journal size.", 5, journal.size());
+    }
+
+    private static JSONObject entry(int number) {
+        return new JSONObject().put("number", number);
+    }
+
+    private static List<Integer> numbers(List<JSONObject> entries) {
+        List<Integer> numbers = new LinkedList<>();
+        for(JSONObject entry : entries)
+            numbers.add(entry.getInt("number"));
+        return numbers;
+    }
+}
@@ -0,0 +1,110 @@
+package org.iota.ec;
+
+import org.iota.ec.model.AutonomousEconomicActor;
+import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
+import org.iota.ict.Ict;
+import org.iota.ict.utils.Trytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+public class PersistenceTest extends IctTestTemplate {
+
+    private final String trustedAddress = Trytes.randomSequenceOfLength(81);
+    private final String fundedAddress = Trytes.randomSequenceOfLength(81);
+    private final String transfer = Trytes.randomSequenceOfLength(81);
+    private String actorAddress;
+    private final List<ECModule> modules = new LinkedList<>();
+
+    @After
+    public void terminateModules() throws IOException {
+        for(ECModule module : modules) {
+            module.getCluster().terminate();
+            module.getJournal().close();
+        }
+    }
+
+    @Test
+    public void testReplayJournal() throws IOException {
+        Ict ict = createIct();
+        Path directory = Files.createTempDirectory("ec_persistence");
+        ECModule module = load(ict, directory);
+        mutate(module);
+        module.getJournal().close();
+        Assert.assertFalse("State was stored instead of journaled.", Files.exists(directory.resolve("persistence.json")));
+
+        assertRestored(load(ict, directory));
+    }
+
+    @Test
+    public void testReplayJournalContainedInSnapshot() throws IOException {
+        Ict ict = createIct();
+        Path directory = Files.createTempDirectory("ec_persistence");
+        ECModule module = load(ict, directory);
+        mutate(module);
+        Path journal = directory.resolve("persistence.journal");
+        byte[] journaled = Files.readAllBytes(journal);
+        Persistence.store(module);
+        module.getJournal().close();
+
+        // crash after the snapshot was stored but before the journal was discarded: replaying it must not apply it twice
+        Files.write(journal, journaled);
+        assertRestored(load(ict, directory));
+    }
+
+    @Test
+    public void testCompactionWhileMutating() throws IOException {
+        Ict ict = createIct();
+        Path directory = Files.createTempDirectory("ec_persistence");
+        // compacts right when a mutation is journaled, i.e. between the journal entry and any later step of the mutation
+        ECModule module = new ECModule(ict, directory, 1) {
+            @Override
+            void requestCompaction() {
+                Persistence.store(this);
+            }
+        };
+        modules.add(module);
+        Persistence.load(module);
+        mutate(module);
+        module.getJournal().close();
+        Assert.assertTrue("Journal was not compacted.", Files.exists(directory.resolve("persistence.json")));
+
+        assertRestored(load(ict, directory));
+    }
+
+    private ECModule load(Ict ict, Path directory) {
+        ECModule module = new ECModule(ict, directory, Journal.DEFAULT_COMPACTION_THRESHOLD);
+        modules.add(module);
+        Persistence.load(module);
+        return module;
+    }
+
+    private void mutate(ECModule module) {
+        module.setTrust(trustedAddress, 0.4);
+        module.changeInitialBalance(fundedAddress, BigInteger.valueOf(100));
+        module.changeInitialBalance(fundedAddress, BigInteger.valueOf(20));
+        actorAddress = module.createNewActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3, 3));
+        for(int i = 0; i < 3; i++)
+            module.getAutonomousActors().get(0).getMerkleTree().reserveIndex();
+        module.watchTransfer(transfer);
+    }
+
+    private void assertRestored(ECModule module) {
+        Assert.assertEquals("Trusted actor was not restored.", 1, module.getTrustedActors().size());
+        Assert.assertEquals("Trust was not restored.", 0.4, module.getTrustedActors().get(0).getTrust(), 1E-9);
+        Assert.assertEquals("Initial balance was not restored.", BigInteger.valueOf(120), module.getInitialBalances().get(fundedAddress));
+        Assert.assertEquals("Autonomous actor was not restored.", 1, module.getAutonomousActors().size());
+        AutonomousEconomicActor actor = module.getAutonomousActors().get(0);
+        Assert.assertEquals("Autonomous actor was restored with another address.", actorAddress, actor.getAddress());
+        Assert.assertEquals("Merkle index was not restored.", 5, actor.getMerkleTree().getLeavesLeft());
+        Assert.assertEquals("Watched transfers were not restored.", Collections.singletonList(transfer), module.getTransfers());
+    }
+}
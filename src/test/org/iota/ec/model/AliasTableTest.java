@@ -0,0 +1,29 @@
+package org.iota.ec.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class AliasTableTest {
+
+    @Test
+    public void testSamplesProportionalToWeight() {
+        double[] weights = {0.1, 0.0, 0.6, 0.3};
+        AliasTable aliasTable = new AliasTable(weights);
+        Random random = new Random(42);
+
+        int amountOfSamples = 100000;
+        int[] counts = new int[weights.length];
+        for(int i = 0; i < amountOfSamples; i++)
+            counts[aliasTable.sample(random)]++;
+
+        for(int i = 0; i < weights.length; i++)
+            Assert.assertEquals("Unexpected frequency of index " + i, weights[i], counts[i] / (double)amountOfSamples, 1E-2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroWeights() {
+        new AliasTable(new double[] {0, 0});
+    }
+}
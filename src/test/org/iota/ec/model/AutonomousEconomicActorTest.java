@@ -11,7 +11,9 @@ import org.junit.Test;
 import java.math.BigInteger;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class AutonomousEconomicActorTest extends IctTestTemplate {
 
@@ -146,6 +148,44 @@ public class AutonomousEconomicActorTest extends IctTestTemplate {
         }
     }
 
+    @Test
+    public void testSelectCandidates() {
+
+        Ict ict = createIct();
+        EconomicCluster cluster = new EconomicCluster(ict);
+
+        SignatureSchemeImplementation.PrivateKey key1 = SignatureSchemeImplementation.derivePrivateKeyFromSeed(Trytes.randomSequenceOfLength(81), 0, 1);
+        SignatureSchemeImplementation.PrivateKey key2 = SignatureSchemeImplementation.derivePrivateKeyFromSeed(Trytes.randomSequenceOfLength(81), 0, 1);
+        BigInteger value = BigInteger.valueOf(10);
+
+        Map<String, BigInteger> initialBalances = new HashMap<>();
+        initialBalances.put(key1.deriveAddress(), value);
+        initialBalances.put(key2.deriveAddress(), value);
+
+        AutonomousEconomicActor underTest = new AutonomousEconomicActor(ict, cluster, initialBalances, randomMerkleTree(3));
+        underTest.setMaxCandidates(1);
+        ControlledEconomicActor other = new ControlledEconomicActor(randomMerkleTree(3));
+        cluster.addActor(new TrustedEconomicActor(other.getAddress(), 1), false);
+
+        String leader = submitBundle(ict, buildValidTransfer(key1, value, Trytes.randomSequenceOfLength(81), Collections.<String>emptySet()));
+        String conflicting = submitBundle(ict, buildValidTransfer(key1, value, Trytes.randomSequenceOfLength(81), Collections.<String>emptySet()));
+        String compatible = submitBundle(ict, buildValidTransfer(key2, value, Trytes.randomSequenceOfLength(81), Collections.<String>emptySet()));
+
+        submitBundle(ict, other.buildMarker(leader, leader, 0.9));
+        submitBundle(ict, other.buildMarker(conflicting, conflicting, 0.5));
+        submitBundle(ict, other.buildMarker(compatible, compatible, 0.2));
+        saveSleep(100);
+
+        List<String> candidates = underTest.selectCandidates(cluster.createView(Collections.<String>emptySet()), Collections.<String>emptySet());
+        Assert.assertEquals("Unexpected amount of candidates.", 2, candidates.size());
+        Assert.assertTrue("Most confident tangle was not selected.", candidates.contains(leader+leader));
+        Assert.assertTrue("Runner-up conflicting with the leader was not selected.", candidates.contains(conflicting+conflicting));
+
+        Set<String> newTangles = Collections.singleton(compatible+compatible);
+        candidates = underTest.selectCandidates(cluster.createView(newTangles), newTangles);
+        Assert.assertTrue("New tangle was not selected.", candidates.contains(compatible+compatible));
+    }
+
     private static double assertConfidenceInterval(EconomicCluster cluster, String transaction, double expectedMin, double expectedMax) {
         double actual = cluster.determineApprovalConfidence(transaction);
         Assert.assertTrue("Unexpected confidence of " + transaction + " ("+actual+" <= "+expectedMin+")", actual > expectedMin);
@@ -0,0 +1,74 @@
+package org.iota.ec.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class ConflictGraphTest {
+
+    @Test
+    public void testTestsEachPairOnlyOnce() {
+        ConflictGraph conflictGraph = new ConflictGraph();
+        List<String> tested = new LinkedList<>();
+
+        Set<ConfidenceCalculator.Conflict> conflicts = conflictGraph.update(Arrays.asList("A", "B", "C"), (a, b) -> {
+            tested.add(a + b);
+            return !(a + b).equals("AB") && !(a + b).equals("BA");
+        });
+        Assert.assertEquals("Unexpected amount of tested pairs.", 3, tested.size());
+        Assert.assertEquals("Unexpected amount of conflicts.", 1, conflicts.size());
+
+        tested.clear();
+        conflicts = conflictGraph.update(Arrays.asList("A", "B", "C", "D"), (a, b) -> {
+            tested.add(a + b);
+            return true;
+        });
+        Assert.assertEquals("Only pairs with the new tangle should have been tested.", 3, tested.size());
+        Assert.assertEquals("Conflict should have been kept.", 1, conflicts.size());
+    }
+
+    @Test
+    public void testDoesNotRetestCompatiblePairs() {
+        ConflictGraph conflictGraph = new ConflictGraph();
+        conflictGraph.update(Arrays.asList("A", "B"), (a, b) -> true);
+
+        Set<ConfidenceCalculator.Conflict> conflicts = conflictGraph.update(Arrays.asList("B", "A"), (a, b) -> {
+            Assert.fail("Compatible pair was tested again.");
+            return false;
+        });
+        Assert.assertEquals("Compatible pair is in conflict.", 0, conflicts.size());
+    }
+
+    @Test
+    public void testKeepsPairsOfTemporarilyDroppedTangles() {
+        ConflictGraph conflictGraph = new ConflictGraph();
+        conflictGraph.update(Arrays.asList("A", "B", "C"), (a, b) -> false);
+
+        Set<ConfidenceCalculator.Conflict> conflicts = conflictGraph.update(Arrays.asList("A", "C"), (a, b) -> false);
+        Assert.assertEquals("Conflicts of dropped tangle should not be reported.", 1, conflicts.size());
+
+        List<String> tested = new LinkedList<>();
+        conflicts = conflictGraph.update(Arrays.asList("A", "B", "C"), (a, b) -> {
+            tested.add(a + b);
+            return true;
+        });
+        Assert.assertEquals("Pairs of the returning tangle were tested again.", 0, tested.size());
+        Assert.assertEquals("Conflicts of the returning tangle were lost.", 3, conflicts.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedPairs() {
+        ConflictGraph conflictGraph = new ConflictGraph(2);
+        conflictGraph.update(Arrays.asList("A", "B"), (a, b) -> true);
+        conflictGraph.update(Arrays.asList("A", "C"), (a, b) -> true);
+        conflictGraph.update(Arrays.asList("A", "B"), (a, b) -> true);
+        conflictGraph.update(Arrays.asList("A", "D"), (a, b) -> true);
+        Assert.assertEquals("Cache exceeds its capacity.", 2, conflictGraph.size());
+
+        List<String> tested = new LinkedList<>();
+        conflictGraph.update(Arrays.asList("A", "B"), (a, b) -> tested.add(a + b));
+        conflictGraph.update(Arrays.asList("A", "C"), (a, b) -> tested.add(a + b));
+        Assert.assertEquals("Only the least recently used pair should have been evicted.", Collections.singletonList("AC"), tested);
+    }
+}
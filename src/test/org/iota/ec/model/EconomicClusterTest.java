@@ -1,9 +1,13 @@
 package org.iota.ec.model;
 
 import org.iota.ec.IctTestTemplate;
+import org.iota.ec.util.HierarchicalMerkleTree;
 import org.iota.ec.util.SerializableAutoIndexableMerkleTree;
 import org.iota.ict.Ict;
 import org.iota.ict.model.bundle.Bundle;
+import org.iota.ict.model.bundle.BundleBuilder;
+import org.iota.ict.model.transfer.OutputBuilder;
+import org.iota.ict.model.transfer.TransferBuilder;
 import org.iota.ict.utils.Trytes;
 import org.iota.ict.model.transaction.Transaction;
 import org.iota.ict.model.transaction.TransactionBuilder;
@@ -11,6 +15,13 @@ import org.iota.ict.utils.crypto.AutoIndexedMerkleTree;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class EconomicClusterTest extends IctTestTemplate {
 
     @Test
@@ -65,6 +76,157 @@ public class EconomicClusterTest extends IctTestTemplate {
         assertApprovalRate(cluster, transaction, Math.max(markerAConfidence, markerBConfidence));
     }
 
+    @Test
+    public void testRetentionPolicyEvictsLeastConfident() {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        EconomicCluster cluster = new EconomicCluster(ict);
+        TrustedEconomicActor ta = new TrustedEconomicActor(ca.getAddress(),1);
+        ta.setRetentionPolicy(new RetentionPolicy(1, 0, -1));
+        cluster.addActor(ta, false);
+
+        Transaction transactionA = new TransactionBuilder().build();
+        Transaction transactionB = new TransactionBuilder().build();
+        ict.submit(transactionA);
+        ict.submit(transactionB);
+
+        sendMarker(ict, ca, transactionA.hash, 20/26.0);
+        sendMarker(ict, ca, transactionB.hash, 5/26.0);
+
+        Assert.assertEquals("Retention policy was not enforced.", 1, ta.getAmountOfSubTangles());
+        assertApprovalRate(cluster, transactionA, 20/26.0);
+        assertApprovalRate(cluster, transactionB, 0);
+    }
+
+    @Test
+    public void testRetentionPolicyExpiresWithoutNewMarkers() {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        EconomicCluster cluster = new EconomicCluster(ict);
+        TrustedEconomicActor ta = new TrustedEconomicActor(ca.getAddress(),1);
+        ta.setRetentionPolicy(new RetentionPolicy(10, 0, 200));
+        cluster.addActor(ta, false);
+
+        Transaction transaction = new TransactionBuilder().build();
+        Transaction child = buildChild(transaction);
+        ict.submit(transaction);
+        ict.submit(child);
+
+        sendMarker(ict, ca, transaction.hash, 20/26.0);
+        // supersedes the first marker
+        sendMarker(ict, ca, child.hash, 22/26.0);
+        Assert.assertEquals("Superseded SubTangle expired too early.", 2, ta.getAmountOfSubTangles());
+
+        // the actor stops issuing markers
+        saveSleep(300);
+        long versionBefore = cluster.getStateVersion();
+        cluster.enforceRetentionPolicies();
+        Assert.assertEquals("Superseded SubTangle did not expire.", 1, ta.getAmountOfSubTangles());
+        Assert.assertTrue("Eviction did not advance the state version.", cluster.getStateVersion() > versionBefore);
+        assertApprovalRate(cluster, child, 22/26.0);
+    }
+
+    @Test
+    public void testDroppedTransactionsResolved() throws InterruptedException {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        EconomicCluster cluster = new EconomicCluster(ict, 1, 1, MarkerPipeline.Backpressure.DROP);
+        cluster.addActor(new TrustedEconomicActor(ca.getAddress(),1), false);
+
+        Transaction parent = new TransactionBuilder().build();
+        Transaction child = buildChild(parent);
+        ict.submit(child);
+        saveSleep(50);
+        // parent is not known yet and therefore missing
+        sendMarker(ict, ca, child.hash, 20/26.0);
+        assertApprovalRate(cluster, parent, 0);
+
+        // keep the writer busy, so that the first transaction takes the only slot and the parent is dropped
+        CountDownLatch writerBlocked = new CountDownLatch(1), release = new CountDownLatch(1);
+        new Thread(() -> cluster.getMarkerPipeline().runOnWriterAndWait(() -> {
+            writerBlocked.countDown();
+            awaitQuietly(release);
+        })).start();
+        writerBlocked.await();
+        ict.submit(new TransactionBuilder().build());
+        saveSleep(50);
+        ict.submit(parent);
+        saveSleep(50);
+        release.countDown();
+        saveSleep(50);
+
+        Assert.assertEquals("Parent was not dropped.", 1, cluster.getMarkerPipeline().getDroppedTransactions());
+        assertApprovalRate(cluster, parent, 0);
+        cluster.resolveDroppedTransactions();
+        assertApprovalRate(cluster, parent, 20/26.0);
+    }
+
+    @Test
+    public void testTerminateReleasesWaitingThreads() throws InterruptedException {
+        Ict ict = createIct();
+        EconomicCluster cluster = new EconomicCluster(ict);
+        MarkerPipeline pipeline = cluster.getMarkerPipeline();
+
+        // the second task waits behind the first one, which never completes on its own
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                pipeline.runOnWriterAndWait(() -> {
+                    writerBlocked.countDown();
+                    awaitQuietly(new CountDownLatch(1));
+                });
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+        }).start();
+        writerBlocked.await();
+        AtomicReference<RejectedExecutionException> failure = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                pipeline.runOnWriterAndWait(() -> {});
+            } catch (RejectedExecutionException e) {
+                failure.set(e);
+            }
+        });
+        waiting.start();
+        saveSleep(50);
+
+        cluster.terminate();
+        waiting.join(1000);
+        Assert.assertFalse("Waiting thread was not released.", waiting.isAlive());
+        Assert.assertNotNull("Task which never ran was not reported as failed.", failure.get());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testConfidenceCache() {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        EconomicCluster cluster = new EconomicCluster(ict);
+        cluster.addActor(new TrustedEconomicActor(ca.getAddress(),1), false);
+
+        Transaction transaction = new TransactionBuilder().build();
+        ict.submit(transaction);
+        saveSleep(50);
+
+        assertApprovalRate(cluster, transaction, 0);
+        long hitsBefore = cluster.getConfidenceCache().getHits();
+        assertApprovalRate(cluster, transaction, 0);
+        Assert.assertEquals("Unchanged cluster did not hit the cache.", hitsBefore+1, cluster.getConfidenceCache().getHits());
+
+        long versionBefore = cluster.getStateVersion();
+        sendMarker(ict, ca, transaction.hash, 13/26.0);
+        Assert.assertTrue("Marker did not advance the state version.", cluster.getStateVersion() > versionBefore);
+        assertApprovalRate(cluster, transaction, 13/26.0);
+    }
+
     private Transaction buildChild(Transaction parent) {
         TransactionBuilder childBuilder = new TransactionBuilder();
         childBuilder.branchHash = parent.hash;
@@ -104,6 +266,199 @@ public class EconomicClusterTest extends IctTestTemplate {
             sendMarker(ict, ca2, transaction.hash, 1);
             assertApprovalRate(cluster, transaction,  (ta1.getTrust() + ta2.getTrust()) / maxTrust);
         }
+
+        Transaction unreferenced = new TransactionBuilder().build();
+        EconomicCluster.Approvals approvals = cluster.determineApprovalConfidences(Arrays.asList(transaction.hash, unreferenced.hash, transaction.hash));
+        Assert.assertEquals("Duplicate hashes were not merged.", 2, approvals.size());
+        Assert.assertEquals("Batch query differs from single query.", cluster.determineApprovalConfidence(transaction.hash), approvals.getConfidence(transaction.hash), 1E-9);
+        Assert.assertEquals("Batch query differs from single query.", cluster.determineTurnout(transaction.hash), approvals.getTurnout(transaction.hash), 1E-9);
+        Assert.assertEquals("Unreferenced transaction has turnout.", 0, approvals.getTurnout(unreferenced.hash), 1E-9);
+    }
+
+    @Test
+    public void testEstimateApprovalConfidence() {
+
+        Ict ict = createIct();
+
+        ControlledEconomicActor ca1 = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        ControlledEconomicActor ca2 = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3, 3));
+
+        EconomicCluster cluster = new EconomicCluster(ict);
+        cluster.addActor(new TrustedEconomicActor(ca1.getAddress(),0.25), false);
+        cluster.addActor(new TrustedEconomicActor(ca2.getAddress(),0.75), false);
+
+        Transaction agreed = new TransactionBuilder().build();
+        Transaction disputed = new TransactionBuilder().build();
+        ict.submit(agreed);
+        ict.submit(disputed);
+        saveSleep(50);
+
+        sendMarker(ict, ca1, agreed.hash, 1);
+        sendMarker(ict, ca2, agreed.hash, 1);
+        sendMarker(ict, ca1, disputed.hash, 1);
+        double exact = cluster.determineApprovalConfidence(disputed.hash);
+
+        cluster.setSampling(0, 10000);
+        EconomicCluster.Approvals approvals = cluster.determineApprovalConfidences(Arrays.asList(agreed.hash, disputed.hash));
+
+        int agreedIndex = approvals.indexOf(agreed.hash), disputedIndex = approvals.indexOf(disputed.hash);
+        Assert.assertEquals("Unanimous confidence was not estimated exactly.", 1, approvals.getConfidence(agreedIndex), 1E-9);
+        Assert.assertEquals("Unanimous confidence has an estimation error.", 0, approvals.getConfidenceError(agreedIndex), 1E-9);
+
+        double error = approvals.getConfidenceError(disputedIndex);
+        Assert.assertTrue("Disputed confidence has no estimation error.", error > 0);
+        Assert.assertEquals("Estimate is too far from the exact confidence.", exact, approvals.getConfidence(disputedIndex), 5 * error);
+        Assert.assertEquals("Estimate is too far from the exact turnout.", exact, approvals.getTurnout(disputedIndex), 5 * error);
+    }
+
+    @Test
+    public void testRestoreFromSnapshot() throws Exception {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        ActorSnapshotStore store = new ActorSnapshotStore(Files.createTempDirectory("ec_snapshots"));
+
+        Transaction transaction = new TransactionBuilder().build();
+        ict.submit(transaction);
+
+        EconomicCluster original = new EconomicCluster(ict);
+        original.setSnapshotStore(store);
+        original.addActor(new TrustedEconomicActor(ca.getAddress(),1), false);
+        sendMarker(ict, ca, transaction.hash, 17/26.0);
+        original.storeSnapshots();
+        original.terminate();
+
+        EconomicCluster restored = new EconomicCluster(ict);
+        restored.setSnapshotStore(store);
+        restored.addActor(new TrustedEconomicActor(ca.getAddress(),1), true);
+        Assert.assertEquals("Snapshot was not restored.", 1, restored.getRestoredSnapshots());
+        Assert.assertEquals("Marker contained in snapshot was verified again.", 1, restored.getSkippedMarkers());
+        assertApprovalRate(restored, transaction, 17/26.0);
+    }
+
+    @Test
+    public void testRejectedMarkerHeadsAreBounded() {
+        TrustedEconomicActor actor = new TrustedEconomicActor(Trytes.randomSequenceOfLength(81), 1);
+        String oldest = Trytes.randomSequenceOfLength(81);
+        actor.markerRejected(oldest);
+        Assert.assertTrue("Rejected marker is not remembered.", actor.hasProcessedMarker(oldest));
+        for(int i = 0; i < TrustedEconomicActor.MAX_REJECTED_MARKER_HEADS; i++)
+            actor.markerRejected(Trytes.randomSequenceOfLength(81));
+        Assert.assertFalse("Oldest rejected marker was not forgotten.", actor.hasProcessedMarker(oldest));
+    }
+
+    @Test
+    public void testAddActorsInParallel() {
+        Ict ict = createIct();
+        ControlledEconomicActor ca1 = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        ControlledEconomicActor ca2 = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+
+        Transaction transaction = new TransactionBuilder().build();
+        ict.submit(transaction);
+        sendMarker(ict, ca1, transaction.hash, 1);
+        sendMarker(ict, ca2, transaction.hash, 0.5);
+
+        EconomicCluster cluster = new EconomicCluster(ict);
+        cluster.addActors(Arrays.asList(new TrustedEconomicActor(ca1.getAddress(),1), new TrustedEconomicActor(ca2.getAddress(),1)));
+        Assert.assertEquals("Not all actors were added.", 2, cluster.getActors().size());
+        Assert.assertEquals("Actors are still syncing.", 0, cluster.amountOfSyncingActors());
+        assertApprovalRate(cluster, transaction, 0.75);
+    }
+
+    @Test
+    public void testRemoveActorWhileSyncing() throws InterruptedException {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 3,3));
+        Transaction transaction = new TransactionBuilder().build();
+        ict.submit(transaction);
+        sendMarker(ict, ca, transaction.hash, 1);
+
+        // keep the writer busy, so that the sync cannot complete before the actor is removed
+        EconomicCluster cluster = new EconomicCluster(ict);
+        CountDownLatch writerBlocked = new CountDownLatch(1), release = new CountDownLatch(1);
+        new Thread(() -> cluster.getMarkerPipeline().runOnWriterAndWait(() -> {
+            writerBlocked.countDown();
+            awaitQuietly(release);
+        })).start();
+        writerBlocked.await();
+
+        TrustedEconomicActor actor = new TrustedEconomicActor(ca.getAddress(), 1);
+        Thread sync = new Thread(() -> cluster.addActors(Collections.singleton(actor)));
+        sync.start();
+        saveSleep(50);
+        Assert.assertEquals("Actor is not syncing.", 1, cluster.amountOfSyncingActors());
+
+        cluster.removeActor(actor);
+        release.countDown();
+        sync.join();
+        Assert.assertEquals("Actor removed during its sync was added.", 0, cluster.getActors().size());
+        Assert.assertEquals("Removed actor is still syncing.", 0, cluster.amountOfSyncingActors());
+        cluster.terminate();
+    }
+
+    @Test
+    public void testHierarchicalMarkers() {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new HierarchicalMerkleTree(Trytes.randomSequenceOfLength(81), 3, 2, 2));
+        EconomicCluster cluster = new EconomicCluster(ict);
+        cluster.addActor(new TrustedEconomicActor(ca.getAddress(),1), false);
+
+        Transaction transaction = new TransactionBuilder().build();
+        ict.submit(transaction);
+
+        assertApprovalRate(cluster, transaction, 0);
+        sendMarker(ict, ca, transaction.hash, 22/26.0);
+        assertApprovalRate(cluster, transaction, 22/26.0);
+        // signed by the same subtree, its certificate has already been verified
+        sendMarker(ict, ca, transaction.hash, 17/26.0);
+        assertApprovalRate(cluster, transaction, 17/26.0);
+    }
+
+    @Test
+    public void testHierarchicalIndexIncreasesAcrossSubTrees() {
+        Ict ict = createIct();
+        // two leaves per subtree, so that the third marker is signed by the second subtree
+        HierarchicalMerkleTree merkleTree = new HierarchicalMerkleTree(Trytes.randomSequenceOfLength(81), 3, 2, 1);
+        ControlledEconomicActor ca = new ControlledEconomicActor(merkleTree);
+        EconomicCluster cluster = new EconomicCluster(ict);
+        TrustedEconomicActor ta = new TrustedEconomicActor(ca.getAddress(),1);
+        cluster.addActor(ta, false);
+
+        Transaction transaction = new TransactionBuilder().build();
+        ict.submit(transaction);
+
+        Bundle markerOfFirstSubTree = ca.buildMarker(transaction.hash, transaction.hash, 3/26.0);
+        sendMarker(ict, ca, transaction.hash, 10/26.0);
+        assertApprovalRate(cluster, transaction, 10/26.0);
+
+        Bundle markerOfSecondSubTree = ca.buildMarker(transaction.hash, transaction.hash, 7/26.0);
+        Assert.assertEquals("Index did not continue in the next subtree.", HierarchicalMerkleTree.combineIndex(1, 0), ta.verifyMarker(markerOfSecondSubTree));
+        sendMarker(ict, markerOfSecondSubTree);
+        assertApprovalRate(cluster, transaction, 7/26.0);
+
+        // marker of the first subtree is older and must not overwrite the confidence
+        sendMarker(ict, markerOfFirstSubTree);
+        assertApprovalRate(cluster, transaction, 7/26.0);
+        Assert.assertEquals("Unexpected amount of leaves left.", 5, merkleTree.getLeavesLeft());
+    }
+
+    @Test
+    public void testForgedCertificateRejected() {
+        Ict ict = createIct();
+        ControlledEconomicActor ca = new ControlledEconomicActor(new HierarchicalMerkleTree(Trytes.randomSequenceOfLength(81), 3, 2, 2));
+        EconomicCluster cluster = new EconomicCluster(ict);
+        TrustedEconomicActor ta = new TrustedEconomicActor(ca.getAddress(),1);
+        cluster.addActor(ta, false);
+
+        Transaction transaction = new TransactionBuilder().build();
+        ict.submit(transaction);
+
+        // certificate is validly signed, but by another root tree
+        HierarchicalMerkleTree forger = new HierarchicalMerkleTree(Trytes.randomSequenceOfLength(81), 3, 2, 2);
+        Bundle forgedMarker = buildHierarchicalMarker(ca.getAddress(), forger, transaction.hash, 1);
+        Assert.assertEquals("Marker with forged certificate was verified.", -1, ta.verifyMarker(forgedMarker));
+
+        sendMarker(ict, forgedMarker);
+        assertApprovalRate(cluster, transaction, 0);
     }
 
     @Test
@@ -133,6 +488,24 @@ public class EconomicClusterTest extends IctTestTemplate {
         sendMarker(ict, marker);
     }
 
+    /**
+     * Builds a marker like {@link ControlledEconomicActor} does, but on behalf of any address.
+     * */
+    private static Bundle buildHierarchicalMarker(String address, HierarchicalMerkleTree merkleTree, String referencedHash, double confidence) {
+        String messageToSign = EconomicActor.messageToSign(referencedHash, referencedHash);
+        HierarchicalMerkleTree.HierarchicalSignature signature = merkleTree.signHierarchically(merkleTree.reserveIndex(), messageToSign);
+        Set<OutputBuilder> outputs = new LinkedHashSet<>();
+        outputs.add(new OutputBuilder(signature.subTreeAddress, BigInteger.ZERO, signature.signature.toString()));
+        outputs.add(new OutputBuilder(address, BigInteger.ZERO, signature.certificate));
+
+        BundleBuilder bundleBuilder = new TransferBuilder(new HashSet<>(), outputs, merkleTree.getSecurityLevel()).build();
+        TransactionBuilder tail = bundleBuilder.getTailToHead().get(0);
+        tail.branchHash = referencedHash;
+        tail.trunkHash = referencedHash;
+        tail.tag = EconomicActor.encodeConfidence(confidence, Transaction.Field.TAG.tryteLength);
+        return bundleBuilder.build();
+    }
+
     private void sendMarker(Ict ict, Bundle marker) {
         for(Transaction markerTransaction : marker.getTransactions())
             ict.submit(markerTransaction);
@@ -0,0 +1,59 @@
+package org.iota.ec.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class MarkerBatcherTest {
+
+    private final MarkerBatcher batcher = new MarkerBatcher();
+
+    @Test
+    public void testIssuesLargestChangesFirst() {
+        batcher.setBudget(1, 2, 0);
+        batcher.offer("A", 0.1, 0.1);
+        batcher.offer("B", 0.5, 0.5);
+        batcher.offer("C", 0.3, 0.3);
+        batcher.offer("A", 0.9, 0.9);
+
+        Map<String, Double> issued = batcher.drain(100);
+        Assert.assertEquals("Updates were not ranked by descending change.", Arrays.asList("A", "B"), new ArrayList<>(issued.keySet()));
+        Assert.assertEquals("Latest update of a tangle was not kept.", 0.9, issued.get("A"), 1E-9);
+        Assert.assertEquals("Update exceeding the burst was not kept pending.", 1, batcher.amountPending());
+    }
+
+    @Test
+    public void testRefillsTokensOverTime() throws InterruptedException {
+        batcher.setBudget(20, 1, 0);
+        batcher.offer("A", 0.5, 0.5);
+        batcher.offer("B", 0.4, 0.4);
+
+        Assert.assertEquals(1, batcher.drain(100).size());
+        Assert.assertEquals("Marker was issued without a token.", 0, batcher.drain(100).size());
+
+        Thread.sleep(100);
+        Assert.assertEquals("Tokens were not refilled.", Collections.singleton("B"), batcher.drain(100).keySet());
+    }
+
+    @Test
+    public void testKeepsLeafReserve() {
+        batcher.setBudget(1, 10, 3);
+        batcher.offer("A", 0.5, 0.5);
+        batcher.offer("B", 0.4, 0.4);
+
+        Assert.assertEquals("Reserved leaves were used.", 0, batcher.drain(3).size());
+        Assert.assertEquals("Leaves exceeding the reserve were not used.", 1, batcher.drain(4).size());
+    }
+
+    @Test
+    public void testDropsUpdatesOfTanglesNoLongerConsidered() {
+        batcher.offer("A", 0.5, 0.5);
+        batcher.offer("B", 0.4, 0.4);
+        batcher.retainOnly(Collections.singleton("B"));
+        Assert.assertEquals(Collections.singleton("B"), batcher.drain(100).keySet());
+    }
+}
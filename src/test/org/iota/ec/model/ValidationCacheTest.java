@@ -0,0 +1,52 @@
+package org.iota.ec.model;
+
+import org.iota.ec.IctTestTemplate;
+import org.iota.ict.Ict;
+import org.iota.ict.utils.Trytes;
+import org.iota.ict.utils.crypto.SignatureSchemeImplementation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collections;
+
+public class ValidationCacheTest extends IctTestTemplate {
+
+    @Test
+    public void testSharesResultsAcrossValidators() {
+        Ict ict = createIct();
+        SignatureSchemeImplementation.PrivateKey key = SignatureSchemeImplementation.derivePrivateKeyFromSeed(Trytes.randomSequenceOfLength(81), 0, 1);
+        BigInteger value = BigInteger.valueOf(10);
+        String transfer = submitBundle(ict, buildValidTransfer(key, value, Trytes.randomSequenceOfLength(81), Collections.<String>emptySet()));
+
+        ValidationCache cache = new ValidationCache();
+        LedgerValidator funded = new LedgerValidator(ict, Collections.singletonMap(key.deriveAddress(), value), cache);
+        LedgerValidator unfunded = new LedgerValidator(ict, Collections.<String, BigInteger>emptyMap(), cache);
+
+        Assert.assertTrue("Funded transfer is not solid.", funded.isTangleSolid(transfer));
+        int validTransfers = cache.amountOfValidTransfers();
+        Assert.assertEquals("Balance changes were not cached.", 1, cache.amountOfDeltas());
+
+        Assert.assertFalse("Initial balances were shared.", unfunded.isTangleSolid(transfer));
+        Assert.assertEquals("Transfer was validated again.", validTransfers, cache.amountOfValidTransfers());
+        Assert.assertEquals("Balance changes were calculated again.", 1, cache.amountOfDeltas());
+    }
+
+    @Test
+    public void testClearsDeltasWhenFull() {
+        ValidationCache cache = new ValidationCache(2);
+        cache.putDelta(Trytes.randomSequenceOfLength(81), Collections.<String, BigInteger>emptyMap());
+        cache.putDelta(Trytes.randomSequenceOfLength(81), Collections.<String, BigInteger>emptyMap());
+        Assert.assertEquals(2, cache.amountOfDeltas());
+
+        String root = Trytes.randomSequenceOfLength(81);
+        cache.putDelta(root, Collections.<String, BigInteger>emptyMap());
+        Assert.assertEquals("Deltas were not cleared when exceeding the maximum.", 1, cache.amountOfDeltas());
+        Assert.assertNotNull("Newest delta was cleared.", cache.getDelta(root));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyDeltaCache() {
+        new ValidationCache(0);
+    }
+}
@@ -0,0 +1,49 @@
+package org.iota.ec.util;
+
+import org.iota.ict.utils.Trytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class IndexableMerkleTreeTest {
+
+    @Test
+    public void testReservesBatchWithSingleNotification() {
+        SerializableAutoIndexableMerkleTree merkleTree = new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 1, 3);
+        List<Integer> notified = new LinkedList<>();
+        merkleTree.setIndexListener(notified::add);
+
+        int[] indexes = merkleTree.reserveIndexes(3);
+        Assert.assertArrayEquals("Leaves were not reserved in order.", new int[] {0, 1, 2}, indexes);
+        Assert.assertEquals("Listener was not notified once with the new index.", 1, notified.size());
+        Assert.assertEquals("Listener was not notified with the new index.", 3, (int) notified.get(0));
+    }
+
+    @Test
+    public void testRejectsBatchExceedingLeavesLeft() {
+        SerializableAutoIndexableMerkleTree merkleTree = new SerializableAutoIndexableMerkleTree(Trytes.randomSequenceOfLength(81), 1, 2);
+        merkleTree.reserveIndexes(3);
+        try {
+            merkleTree.reserveIndexes(2);
+            Assert.fail("Reserved more leaves than left.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals("Failed batch used a leaf.", 1, merkleTree.getLeavesLeft());
+    }
+
+    @Test
+    public void testHierarchicalBatchContinuesInNextSubTree() {
+        HierarchicalMerkleTree merkleTree = new HierarchicalMerkleTree(Trytes.randomSequenceOfLength(81), 1, 2, 1);
+        List<Integer> notified = new LinkedList<>();
+        merkleTree.setIndexListener(notified::add);
+
+        int[] indexes = merkleTree.reserveIndexes(3);
+        int[] expected = {HierarchicalMerkleTree.combineIndex(0, 0), HierarchicalMerkleTree.combineIndex(0, 1), HierarchicalMerkleTree.combineIndex(1, 0)};
+        Assert.assertArrayEquals("Batch did not continue in the next subtree.", expected, indexes);
+        Assert.assertEquals("Listener was not notified once per batch.", 1, notified.size());
+        Assert.assertEquals("Unexpected amount of leaves left.", 5, merkleTree.getLeavesLeft());
+    }
+}
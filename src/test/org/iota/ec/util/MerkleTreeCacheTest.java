@@ -0,0 +1,64 @@
+package org.iota.ec.util;
+
+import org.iota.ict.utils.Trytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+public class MerkleTreeCacheTest {
+
+    private final String seed = Trytes.randomSequenceOfLength(81);
+    private final String address = Trytes.randomSequenceOfLength(81);
+
+    @Test
+    public void testCutsOffCorruptTail() throws IOException {
+        Path directory = Files.createTempDirectory("ec_merkle_cache");
+        MerkleTreeCache cache = open(directory);
+        cache.storeAddress(address);
+        cache.storeCertificate(0, Trytes.randomSequenceOfLength(81), Trytes.randomSequenceOfLength(27));
+
+        // entry whose certificate length exceeds the file
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(findFile(directory), StandardOpenOption.APPEND))) {
+            out.writeInt(1);
+            out.write(Trytes.randomSequenceOfLength(81).getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(Integer.MAX_VALUE);
+        }
+
+        cache = open(directory);
+        Assert.assertEquals("Address was lost.", address, cache.getAddress());
+        Assert.assertNotNull("Intact certificate was lost.", cache.getCertificate(0));
+        Assert.assertNull("Corrupt certificate was loaded.", cache.getCertificate(1));
+
+        cache.storeCertificate(2, Trytes.randomSequenceOfLength(81), Trytes.randomSequenceOfLength(27));
+        Assert.assertNotNull("Certificate appended after the corrupt tail was lost.", open(directory).getCertificate(2));
+    }
+
+    @Test
+    public void testDiscardsCorruptHeader() throws IOException {
+        Path directory = Files.createTempDirectory("ec_merkle_cache");
+        open(directory).storeAddress(address);
+        Files.write(findFile(directory), new byte[] {1, 2, 3});
+
+        MerkleTreeCache cache = open(directory);
+        Assert.assertNull("Corrupt cache was not discarded.", cache.getAddress());
+        cache.storeAddress(address);
+        Assert.assertEquals("Discarded cache was not rebuilt.", address, open(directory).getAddress());
+    }
+
+    private MerkleTreeCache open(Path directory) {
+        return MerkleTreeCache.open(directory, seed, 1, 3, 3);
+    }
+
+    private static Path findFile(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.findFirst().orElseThrow(() -> new IOException("No cache file in " + directory));
+        }
+    }
+}